@@ -3,11 +3,17 @@ package edu.wisc.cs.sdn.sr;
 import java.nio.ByteBuffer;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 import net.floodlightcontroller.packet.ARP;
 import net.floodlightcontroller.packet.Data;
-import net.floodlightcontroller.packet.IPv4;
 import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.FrameView;
+import net.floodlightcontroller.packet.IPv4;
 import net.floodlightcontroller.util.MACAddress;
 
 /**
@@ -23,19 +29,97 @@ public class ArpCache implements Runnable
 	 *  determine the MAC address associated with an IP address */
 	public static final int MAX_SEND_COUNT = 5;
 	
+	/** Time (in milliseconds) between ARP request packets for an IP */
+	public static final int RETRY_INTERVAL = 1000;
+	
+	/** Entries learned again within this time (in milliseconds) of being
+	 *  added or refreshed keep their expiry time, so learning from every
+	 *  packet received does not write to the table */
+	public static final int REFRESH_INTERVAL = 1000;
+	
+	/** Time (in milliseconds) before an entry expires to start resolving it
+	 *  again, if it is used to send packets; ARP request packets are sent to
+	 *  the entry's MAC address every RETRY_INTERVAL until a reply arrives or
+	 *  the entry expires */
+	public static final int REFRESH_AHEAD = 3 * 1000;
+	
+	/** Time (in milliseconds) packets to an IP address are answered with
+	 *  ICMP host unreachable, without resolving it again, after an ARP 
+	 *  request for it times out; doubled each time a request for the IP 
+	 *  address times out again within BACKOFF_MAX of the backoff ending, up
+	 *  to BACKOFF_MAX */
+	public static final int BACKOFF_INITIAL = 5 * 1000;
+	
+	/** Longest time (in milliseconds) packets to an IP address are answered
+	 *  without resolving it */
+	public static final int BACKOFF_MAX = 60 * 1000;
+	
+	/** Least time (in milliseconds) between ICMP host unreachable packets
+	 *  answering packets to one backed off IP address; packets to the IP 
+	 *  address in between are dropped */
+	public static final int BACKOFF_ANSWER_INTERVAL = 100;
+	
+	/** Default number of frames that can wait on one ARP request */
+	public static final int DEFAULT_MAX_WAITING = 64;
+	
+	/** Default total length of the frames that can wait on all ARP 
+	 *  requests */
+	public static final long DEFAULT_MAX_WAITING_BYTES = 1024 * 1024;
+	
+	/** Which frame to drop when a frame arrives for a full queue */
+	public enum DropPolicy
+	{
+		/** Drop the oldest frames waiting on the request */
+		DROP_OLDEST,
+		/** Drop the frame that arrived */
+		DROP_NEWEST
+	}
+	
 	/** Router to which this cache belongs */
 	private Router router;
 	
-	/** Entries in the cache; maps an IP address to an entry */
-	private Map<Integer,ArpEntry> entries;
+	/** Entries in the cache; maps an IP address to a MAC address */
+	private ArpTable entries;
 	
 	/** Requests for IP address, MAC address pairs that should be added to the 
 	 * cache; maps an IP address to a request */
 	private Map<Integer,ArpRequest> requests;
 	
+	/** Deadlines for retrying requests, refreshing and timing out entries,
+	 *  and forgetting backed off IP addresses, earliest first */
+	private DelayQueue<Timeout> timeouts;
+	
+	/** IP addresses whose ARP requests recently timed out; maps an IP
+	 *  address to its backoff */
+	private Map<Integer,Unreachable> unreachable;
+	
 	/** Thread for timing out requests and entries in the cache */
 	private Thread timeoutThread;
 	
+	/** Most frames that can wait on one request */
+	private int maxWaiting;
+	
+	/** Most total length of the frames waiting on all requests */
+	private long maxWaitingBytes;
+	
+	/** Which frame to drop when a queue or the budget is full */
+	private DropPolicy dropPolicy;
+	
+	/** Total length of the frames waiting on all requests */
+	private AtomicLong waitingBytes;
+	
+	/** Number of frames dropped because their request's queue was full */
+	private LongAdder droppedQueueFull;
+	
+	/** Number of frames dropped because the budget for waiting frames was
+	 *  used up */
+	private LongAdder droppedBudget;
+	
+	/** Number of packets answered with ICMP host unreachable, or dropped
+	 *  when answers to their next hop are rate limited, because their next
+	 *  hop was backed off */
+	private LongAdder refusedUnreachable;
+	
 	/**
 	 * Initializes an empty ARP cache for a router.
 	 * @param router router to which this cache belongs
@@ -43,141 +127,415 @@ public class ArpCache implements Runnable
 	public ArpCache(Router router)
 	{
 		this.router = router;
-		this.entries = new ConcurrentHashMap<Integer,ArpEntry>();
+		this.entries = new ArpTable();
 		this.requests = new ConcurrentHashMap<Integer,ArpRequest>();
+		this.timeouts = new DelayQueue<Timeout>();
+		this.unreachable = new ConcurrentHashMap<Integer,Unreachable>();
+		this.maxWaiting = DEFAULT_MAX_WAITING;
+		this.maxWaitingBytes = DEFAULT_MAX_WAITING_BYTES;
+		this.dropPolicy = DropPolicy.DROP_OLDEST;
+		this.waitingBytes = new AtomicLong();
+		this.droppedQueueFull = new LongAdder();
+		this.droppedBudget = new LongAdder();
+		this.refusedUnreachable = new LongAdder();
 		timeoutThread = new Thread(this);
 		timeoutThread.start();
 	}
 	
 	/**
-	 * Every second: generate ARP request packets, timeout ARP requests, and
-	 * timeout ARP entries.
+	 * Handle each deadline as it arrives: send ARP request packets, timeout
+	 * ARP requests, refresh ARP entries in use, timeout ARP entries, and
+	 * forget IP addresses that were backed off. A request or entry is only 
+	 * looked at when one of its deadlines arrives.
 	 */
 	public void run()
 	{
 		while (true)
 		{
-			// Run every second
+			Timeout timeout;
 			try 
-			{ Thread.sleep(1000); }
+			{ timeout = this.timeouts.take(); }
 			catch (InterruptedException e) 
 			{ break; }
 			
-			// Send ARP request packets and timeout ARP requests
-			for (ArpRequest request : this.requests.values())
-			{ this.updateArpRequest(request); }
-			
-			// Timeout ARP entries
-			for (ArpEntry entry : this.entries.values())
+			switch (timeout.kind)
 			{
-				if ((System.currentTimeMillis() - entry.getTimeAdded()) 
-						> TIMEOUT)
-				{ this.entries.remove(entry.getIp()); }
+			case RETRY:
+				// Ignore deadlines of requests that were answered or timed out
+				if (this.requests.get(timeout.ip) == timeout.request)
+				{ this.updateArpRequest(timeout.request); }
+				break;
+			case ENTRY:
+				this.updateArpEntry(timeout.ip);
+				break;
+			case FORGET:
+				this.forgetUnreachable(timeout.ip);
+				break;
 			}
 		}
 	}
 	
+	/**
+	 * Remove the entry for an IP address if it has timed out. Otherwise, if
+	 * the entry is about to expire and was used since the last check, send
+	 * an ARP request packet to the MAC address in the entry; the entry keeps
+	 * being used until a reply refreshes it or it expires. Every entry has
+	 * exactly one deadline, which is set again from the entry's expiry time
+	 * each time it arrives, so entries refreshed at any time, by a late 
+	 * reply or other packets, are refreshed again before they expire.
+	 * @param ip IP address whose entry reached a deadline
+	 */
+	private void updateArpEntry(int ip)
+	{
+		long now = System.currentTimeMillis();
+		long expiry = this.entries.removeIfExpired(ip, now);
+		if (0 == expiry)
+		{ return; }
+		
+		if (expiry - now > REFRESH_AHEAD)
+		{
+			this.timeouts.add(new Timeout(expiry - REFRESH_AHEAD, ip, 
+					Timeout.Kind.ENTRY));
+			return;
+		}
+		
+		Iface iface = this.router.getInterface(this.entries.takeUsed(ip));
+		long mac = this.entries.getMac(ip);
+		if (iface != null && mac != ArpTable.NO_MAC)
+		{
+			Trace.log(Trace.Level.DEBUG, "Refresh ARP entry");
+			this.sendArpRequest(iface, ip, mac);
+		}
+		this.timeouts.add(new Timeout(Math.min(now + RETRY_INTERVAL, expiry), 
+				ip, Timeout.Kind.ENTRY));
+	}
+	
+	/**
+	 * Forget a backed off IP address once it has not failed to resolve for 
+	 * BACKOFF_MAX after its backoff ended, so its next failure starts from 
+	 * BACKOFF_INITIAL again.
+	 * @param ip IP address whose backoff reached a deadline
+	 */
+	private void forgetUnreachable(int ip)
+	{
+		long now = System.currentTimeMillis();
+		this.unreachable.computeIfPresent(ip, 
+				(key, backoff) -> (now >= backoff.forgetTime) ? null : backoff);
+	}
+	
 	/**
 	 * Send an ARP request packet for an IP if one second has elapsed and no
-	 * reply has been received. Timeout an ARP request if MAX_SEND_COUNT
-	 * request packets have been sent and no reply has been received. 
+	 * reply has been received, and set the deadline for the next one. 
+	 * Timeout an ARP request if MAX_SEND_COUNT request packets have been sent
+	 * and no reply has been received. 
 	 * @param request a pending ARP request
 	 */
 	private void updateArpRequest(ArpRequest request)
 	{
-		if ((System.currentTimeMillis() - request.getLastTimeSent()) 
-				< 1000)
-		{ return; }
-		
-		if (request.getSentCount() >= MAX_SEND_COUNT)
+		synchronized (request)
 		{
-			/*********************************************************/
-		    /* TODO: send ICMP host unreachable to the source        */ 
-		    /* address of all packets waiting on this request        */
+			if ((System.currentTimeMillis() - request.getLastTimeSent()) 
+					< RETRY_INTERVAL)
+			{ return; }
 			
-			
-		    /*********************************************************/
-			for (Ethernet packet : request.getWaitingPackets())
+			if (request.getSentCount() < MAX_SEND_COUNT)
 			{
-				IPv4 ipPacket = (IPv4)packet.getPayload();
-				Data icmpData = new Data();
-				byte[] icmpDataBytes = new byte[32];
-				ByteBuffer bb = ByteBuffer.wrap(icmpDataBytes);
-
-				bb.putInt(0);
-				bb.put(ipPacket.serialize(), 0, 28);
-				icmpData.setData(icmpDataBytes);
-				
-				this.router.sendIcmp(	ipPacket.getSourceAddress(),
-										(byte)3,
-										(byte)1,
-										icmpData );
+				// Send ARP request packet
+				this.sendArpRequest(request.getIface(), request.getIpAddress(),
+						MACAddress.BROADCAST);
+				request.incrementSent();
+				this.timeouts.add(new Timeout(
+						request.getLastTimeSent() + RETRY_INTERVAL, request));
+				return;
 			}
-
-			this.requests.remove(request.getIpAddress());
 		}
-		else
+		
+		// Only the thread that removes the request answers its packets
+		if (!this.requests.remove(request.getIpAddress(), request))
+		{ return; }
+		this.close(request);
+		this.backOff(request.getIpAddress());
+		
+		/*********************************************************/
+		/* TODO: send ICMP host unreachable to the source        */ 
+		/* address of all packets waiting on this request        */
+		
+		
+		/*********************************************************/
+		FrameView frame = new FrameView();
+		byte[] data;
+		while ((data = request.dequeueFrame()) != null)
+		{ this.sendHostUnreachable(frame.wrap(data, 0, data.length)); }
+	}
+	
+	/**
+	 * Back off an IP address whose ARP request timed out: packets to it are
+	 * answered with ICMP host unreachable until the backoff ends. The
+	 * backoff doubles if the IP address fails again before it is forgotten.
+	 * @param ip IP address whose ARP request timed out
+	 */
+	private void backOff(int ip)
+	{
+		long now = System.currentTimeMillis();
+		Unreachable backoff = this.unreachable.compute(ip, 
+				(key, last) -> new Unreachable(now, 
+						(null == last) ? BACKOFF_INITIAL 
+								: Math.min(2 * last.interval, BACKOFF_MAX)));
+		this.timeouts.add(new Timeout(backoff.forgetTime, ip, 
+				Timeout.Kind.FORGET));
+		Trace.log(Trace.Level.INFO, () -> "ARP backoff " + backoff.interval 
+				+ " ms for " + IPv4.fromIPv4Address(ip));
+	}
+	
+	/**
+	 * Send ICMP host unreachable to the source of a frame that could not be
+	 * delivered, unless the frame is not IPv4 or holds an ICMP error.
+	 * @param frame the frame that could not be delivered
+	 */
+	private void sendHostUnreachable(FrameView frame)
+	{
+		if (!frame.isIPv4())
+		{ return; }
+		
+		// Never answer an ICMP error with another one
+		byte[] data = frame.getData();
+		int ipOffset = frame.getNetworkOffset();
+		int icmpOffset = ipOffset + frame.getIpHeaderLength();
+		if (IPv4.PROTOCOL_ICMP == frame.getProtocol() 
+				&& icmpOffset < frame.getOffset() + frame.getLength())
 		{
-			// Send ARP request packet
-			this.sendArpRequest(request);
-			request.incrementSent();
+			switch (data[icmpOffset])
+			{
+			case 3: case 4: case 5: case 11: case 12:
+				return;
+			}
 		}
+		
+		// Quote the IP header and the first 8 bytes of its payload
+		Data icmpData = new Data();
+		byte[] icmpDataBytes = new byte[32];
+		ByteBuffer bb = ByteBuffer.wrap(icmpDataBytes);
+
+		bb.putInt(0);
+		bb.put(data, ipOffset, Math.min(28, 
+				frame.getOffset() + frame.getLength() - ipOffset));
+		icmpData.setData(icmpDataBytes);
+		
+		this.router.sendIcmp(	frame.getSourceAddress(),
+								(byte)3,
+								(byte)1,
+								icmpData );
+	}
+	
+	/**
+	 * Close a request that was removed from the pending requests, and take
+	 * its waiting frames off the budget.
+	 * @param request a request no longer in the pending requests
+	 */
+	private void close(ArpRequest request)
+	{
+		int bytes;
+		synchronized (request)
+		{ bytes = request.close(); }
+		this.waitingBytes.addAndGet(-bytes);
 	}
 	
 	/**
 	 * Insert an entry in the ARP cache for a specific IP address, MAC address
-	 * pair, and return any pending request.
-	 * @param mac MAC address corresponding to IP address
+	 * pair, and return any pending request. The request is closed, and the 
+	 * caller should send the frames waiting on it.
+	 * @param mac MAC address corresponding to IP address, in the lower 48 bits
 	 * @param ip IP address corresponding to MAC address
+	 * @param iface interface on which the mapping was learned
 	 * @return pending request for the specified IP address; null if none exists
 	 */
-	public ArpRequest insert(MACAddress mac, int ip)
+	public ArpRequest insert(long mac, int ip, Iface iface)
 	{
-		ArpRequest request = this.requests.remove(ip);
-		this.entries.put(ip, new ArpEntry(mac, ip));
+		long now = System.currentTimeMillis();
+		if (!this.unreachable.isEmpty())
+		{ this.unreachable.remove(ip); }
+		
+		ArpRequest request = this.requests.isEmpty() ? null 
+				: this.requests.remove(ip);
+		if (request != null)
+		{ this.close(request); }
+		else if (this.entries.getMac(ip) == mac
+				&& this.entries.getExpiry(ip) - now > TIMEOUT - REFRESH_INTERVAL)
+		{ return null; }
+		
+		if (this.entries.put(ip, mac, iface.getIndex(), now + TIMEOUT))
+		{
+			// Refreshing an entry moves its expiry time, which is checked
+			// when its deadline arrives
+			this.timeouts.add(new Timeout(now + TIMEOUT - REFRESH_AHEAD, ip, 
+					Timeout.Kind.ENTRY));
+		}
 		return request;
 	}
 	
 	/**
-	 * Checks if an IP->MAC mapping is the in the cache.
+	 * Checks if an IP->MAC mapping is the in the cache, and notes that it is
+	 * in use, so it is refreshed before it expires. Does not allocate.
 	 * @param ip IP address whose MAC address is desired
-	 * @return the IP->MAC mapping from the cache; null if none exists 
+	 * @return the MAC address from the cache, in the lower 48 bits; 
+	 *         ArpTable.NO_MAC if none exists 
 	 */
-	public ArpEntry lookup(int ip)
-	{ return this.entries.get(ip); }
+	public long lookup(int ip)
+	{ return this.entries.use(ip); }
 	
 	/**
-	 * Adds an ARP request to the ARP request queue. Adds the packet to the 
-	 * list of packets waiting for this request to be resolved.
-	 * @param etherPacket packet waiting for the MAC for it's next hop IP
+	 * Adds an ARP request to the ARP request queue. Adds the packet, as a
+	 * raw frame, to the frames waiting for this request to be resolved, 
+	 * unless the request's queue or the budget for waiting frames is full 
+	 * and the drop policy drops it. If a recent request for the IP address
+	 * timed out, the packet is answered with ICMP host unreachable instead,
+	 * or dropped if the IP address was answered for less than 
+	 * BACKOFF_ANSWER_INTERVAL ago, and no request is made until the backoff
+	 * ends.
+	 * @param etherPacket packet waiting for the MAC for it's next hop IP; 
+	 *        copied, so it can be reused once this returns
 	 * @param outIface interface out which the packet will be sent
 	 * @param nextHopIP the IP address whose MAC should be determined
 	 */
 	public void waitForArp(Ethernet etherPacket, Iface outIface, int nextHopIp)
 	{
-		ArpRequest request = this.requests.get(nextHopIp);
-		if (null == request)
+		// Refuse packets to a backed off next hop before doing any work for
+		// them; only packets that are answered are serialized
+		if (!this.unreachable.isEmpty())
 		{
-			request = new ArpRequest(nextHopIp, outIface);
-			this.requests.put(nextHopIp, request);
+			Unreachable backoff = this.unreachable.get(nextHopIp);
+			long now = System.currentTimeMillis();
+			if (backoff != null && now < backoff.endTime)
+			{
+				this.refusedUnreachable.increment();
+				if (backoff.tryAnswer(now))
+				{
+					byte[] frame = new byte[etherPacket.getSerializedLength()];
+					etherPacket.serializeTo(ByteBuffer.wrap(frame));
+					this.sendHostUnreachable(
+							new FrameView().wrap(frame, 0, frame.length));
+				}
+				return;
+			}
 		}
-		request.enqueuePacket(etherPacket);
+		
+		byte[] frame = new byte[etherPacket.getSerializedLength()];
+		etherPacket.serializeTo(ByteBuffer.wrap(frame));
+		
+		// A request answered or timed out since it was found is closed;
+		// start a new one
+		ArpRequest request;
+		do
+		{
+			request = this.requests.computeIfAbsent(nextHopIp, 
+					ip -> new ArpRequest(ip, outIface));
+		} while (!this.enqueueFrame(request, frame));
 		this.updateArpRequest(request);
 	}
 	
 	/**
-	 * Send an ARP request packet for a pending ARP request.
-	 * @param request pending request for obtaining the MAC address for an IP
+	 * Add a frame to a request's waiting frames, making room for it or 
+	 * dropping it according to the drop policy.
+	 * @return false if the request is closed
+	 */
+	private boolean enqueueFrame(ArpRequest request, byte[] frame)
+	{
+		synchronized (request)
+		{
+			if (request.isClosed())
+			{ return false; }
+			
+			while (request.getWaitingCount() >= this.maxWaiting
+					|| !this.reserve(frame.length))
+			{
+				boolean queueFull = 
+						(request.getWaitingCount() >= this.maxWaiting);
+				(queueFull ? this.droppedQueueFull : this.droppedBudget)
+						.increment();
+				if (DropPolicy.DROP_NEWEST == this.dropPolicy 
+						|| 0 == request.getWaitingCount())
+				{ return true; }
+				this.waitingBytes.addAndGet(-request.dequeueFrame().length);
+			}
+			request.enqueueFrame(frame);
+			return true;
+		}
+	}
+	
+	/**
+	 * Reserve room in the budget for waiting frames.
+	 * @return false if the budget does not have room
+	 */
+	private boolean reserve(int bytes)
+	{
+		while (true)
+		{
+			long waiting = this.waitingBytes.get();
+			if (waiting + bytes > this.maxWaitingBytes)
+			{ return false; }
+			if (this.waitingBytes.compareAndSet(waiting, waiting + bytes))
+			{ return true; }
+		}
+	}
+	
+	/**
+	 * Set how many frames can wait for ARP replies, and which frame to drop
+	 * when a frame arrives and there is no room for it.
+	 * @param maxWaiting most frames that can wait on one request
+	 * @param maxWaitingBytes most total length of the frames waiting on all
+	 *        requests
+	 * @param dropPolicy which frame to drop
+	 */
+	public void setQueueLimits(int maxWaiting, long maxWaitingBytes, 
+			DropPolicy dropPolicy)
+	{
+		this.maxWaiting = maxWaiting;
+		this.maxWaitingBytes = maxWaitingBytes;
+		this.dropPolicy = dropPolicy;
+	}
+	
+	/**
+	 * @return total length of the frames waiting for ARP replies
+	 */
+	public long getWaitingBytes()
+	{ return this.waitingBytes.get(); }
+	
+	/**
+	 * @return number of frames dropped because their request's queue was
+	 *         full
+	 */
+	public long getDroppedQueueFull()
+	{ return this.droppedQueueFull.sum(); }
+	
+	/**
+	 * @return number of frames dropped because the budget for waiting frames
+	 *         was used up
+	 */
+	public long getDroppedBudget()
+	{ return this.droppedBudget.sum(); }
+	
+	/**
+	 * @return number of packets answered with ICMP host unreachable, or 
+	 *         dropped when answers are rate limited, without resolving their
+	 *         next hop, because it was backed off
+	 */
+	public long getRefusedUnreachable()
+	{ return this.refusedUnreachable.sum(); }
+	
+	/**
+	 * Send an ARP request packet for the MAC address of an IP address.
+	 * @param iface interface over which the resolution should occur
+	 * @param ip IP address whose MAC address is requested
+	 * @param destMac MAC address the request packet is sent to: broadcast
+	 *        for a new resolution, or the known MAC address to refresh an 
+	 *        entry
 	 */
-	private void sendArpRequest(ArpRequest request)
+	private void sendArpRequest(Iface iface, int ip, long destMac)
 	{
 		// Populate Ethernet header
 		Ethernet etherPkt = new Ethernet();
-		byte[] broadcastMac = {(byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFF,
-				(byte)0xFF, (byte)0xFF};
-		etherPkt.setDestinationMACAddress(broadcastMac);
-		etherPkt.setSourceMACAddress(
-				request.getIface().getMacAddress().toBytes());
+		etherPkt.setDestinationMACAddress(destMac);
+		etherPkt.setSourceMACAddress(iface.getMacAddress());
 		etherPkt.setEtherType(Ethernet.TYPE_ARP);
 		
 		// Populate ARP header
@@ -188,19 +546,20 @@ public class ArpCache implements Runnable
 		arpPkt.setProtocolAddressLength((byte)4);
 		arpPkt.setOpCode(ARP.OP_REQUEST);
 		arpPkt.setSenderHardwareAddress(
-				request.getIface().getMacAddress().toBytes());
-		arpPkt.setSenderProtocolAddress(request.getIface().getIpAddress());
-        arpPkt.setTargetHardwareAddress(
-                new byte[Ethernet.DATALAYER_ADDRESS_LENGTH]);
-		arpPkt.setTargetProtocolAddress(request.getIpAddress());
+				MACAddress.toBytes(iface.getMacAddress()));
+		arpPkt.setSenderProtocolAddress(iface.getIpAddress());
+        arpPkt.setTargetHardwareAddress((MACAddress.BROADCAST == destMac)
+                ? new byte[Ethernet.DATALAYER_ADDRESS_LENGTH]
+                : MACAddress.toBytes(destMac));
+		arpPkt.setTargetProtocolAddress(ip);
 		
 		// Stack headers
 		etherPkt.setPayload(arpPkt);
 		
 		// Send ARP request
-		System.out.println("Send ARP request");
-		System.out.println(etherPkt.toString());
-		this.router.sendPacket(etherPkt, request.getIface());
+		Trace.log(Trace.Level.DEBUG, "Send ARP request");
+		Trace.log(Trace.Level.PACKET, "", etherPkt);
+		this.router.sendPacket(etherPkt, iface);
 	}
 	
 	/**
@@ -212,8 +571,8 @@ public class ArpCache implements Runnable
 	{
 		// Populate Ethernet header
 		Ethernet etherReply = new Ethernet();
-		etherReply.setDestinationMACAddress(etherPacket.getSourceMACAddress());
-		etherReply.setSourceMACAddress(iface.getMacAddress().toBytes());
+		etherReply.setDestinationMACAddress(etherPacket.getSourceMACAsLong());
+		etherReply.setSourceMACAddress(iface.getMacAddress());
 		etherReply.setEtherType(Ethernet.TYPE_ARP);
 		
 		// Populate ARP header
@@ -224,7 +583,8 @@ public class ArpCache implements Runnable
 		arpReply.setHardwareAddressLength(arpPacket.getHardwareAddressLength());
 		arpReply.setProtocolAddressLength(arpPacket.getProtocolAddressLength());
 		arpReply.setOpCode(ARP.OP_REPLY);
-		arpReply.setSenderHardwareAddress(iface.getMacAddress().toBytes());
+		arpReply.setSenderHardwareAddress(
+				MACAddress.toBytes(iface.getMacAddress()));
 		arpReply.setSenderProtocolAddress(iface.getIpAddress());
 		arpReply.setTargetHardwareAddress(arpPacket.getSenderHardwareAddress());
 		arpReply.setTargetProtocolAddress(arpPacket.getSenderProtocolAddress());
@@ -233,8 +593,115 @@ public class ArpCache implements Runnable
 		etherReply.setPayload(arpReply);
 		
 		// Send ARP request
-		System.out.println("Send ARP reply");
-		System.out.println(arpReply.toString());
+		Trace.log(Trace.Level.DEBUG, "Send ARP reply");
+		Trace.log(Trace.Level.PACKET, "", arpReply);
 		this.router.sendPacket(etherReply, iface);
 	}
+	
+	public String toString()
+	{
+		return String.format("ARP cache: %d entries, %d requests, "
+				+ "%d bytes waiting, %d dropped (queue full), "
+				+ "%d dropped (budget), %d backed off, "
+				+ "%d refused (backed off)", this.entries.size(), 
+				this.requests.size(), this.getWaitingBytes(), 
+				this.getDroppedQueueFull(), this.getDroppedBudget(),
+				this.unreachable.size(), this.getRefusedUnreachable());
+	}
+	
+	/**
+	 * Backoff of an IP address whose ARP request timed out.
+	 */
+	private static class Unreachable
+	{
+		/** Length (in milliseconds) of the backoff */
+		final long interval;
+		
+		/** Time (in milliseconds since the epoch) the backoff ends */
+		final long endTime;
+		
+		/** Time (in milliseconds since the epoch) the IP address is 
+		 *  forgotten, unless it fails again */
+		final long forgetTime;
+		
+		/** Earliest time (in milliseconds since the epoch) the next packet
+		 *  to the IP address can be answered */
+		private final AtomicLong nextAnswerTime;
+		
+		Unreachable(long now, long interval)
+		{
+			this.interval = interval;
+			this.endTime = now + interval;
+			this.forgetTime = this.endTime + BACKOFF_MAX;
+			this.nextAnswerTime = new AtomicLong();
+		}
+		
+		/**
+		 * Claim the right to answer a packet to the IP address, if no packet
+		 * to it was answered in the last BACKOFF_ANSWER_INTERVAL.
+		 * @param now current time (in milliseconds since the epoch)
+		 * @return true if the packet should be answered; false to drop it
+		 */
+		boolean tryAnswer(long now)
+		{
+			long next = this.nextAnswerTime.get();
+			return now >= next && this.nextAnswerTime.compareAndSet(next, 
+					now + BACKOFF_ANSWER_INTERVAL);
+		}
+	}
+	
+	/**
+	 * A deadline for retrying an ARP request, for refreshing or timing out
+	 * an ARP entry, or for forgetting a backed off IP address.
+	 */
+	private static class Timeout implements Delayed
+	{
+		/** What to do when a deadline arrives */
+		enum Kind
+		{
+			/** Retry or time out a request */
+			RETRY,
+			/** Refresh an entry that is about to expire, or time it out */
+			ENTRY,
+			/** Forget a backed off IP address */
+			FORGET
+		}
+		
+		/** Time (in milliseconds since the epoch) the deadline arrives */
+		final long deadline;
+		
+		/** IP address of the request or entry */
+		final int ip;
+		
+		/** What to do when the deadline arrives */
+		final Kind kind;
+		
+		/** Request to retry; null for other kinds of deadlines */
+		final ArpRequest request;
+		
+		Timeout(long deadline, int ip, Kind kind)
+		{
+			this.deadline = deadline;
+			this.ip = ip;
+			this.kind = kind;
+			this.request = null;
+		}
+		
+		Timeout(long deadline, ArpRequest request)
+		{
+			this.deadline = deadline;
+			this.ip = request.getIpAddress();
+			this.kind = Kind.RETRY;
+			this.request = request;
+		}
+		
+		public long getDelay(TimeUnit unit)
+		{
+			return unit.convert(this.deadline - System.currentTimeMillis(), 
+					TimeUnit.MILLISECONDS);
+		}
+		
+		public int compareTo(Delayed other)
+		{ return Long.compare(this.deadline, ((Timeout)other).deadline); }
+	}
 }
@@ -1,12 +1,15 @@
 package edu.wisc.cs.sdn.sr;
 
-import java.util.LinkedList;
-import java.util.List;
-
-import net.floodlightcontroller.packet.Ethernet;
+import java.util.ArrayDeque;
 
 /**
- * A pending request for obtaining the MAC address for an IP using ARP. 
+ * A pending request for obtaining the MAC address for an IP using ARP.
+ * <p>
+ * Packets waiting on the request are kept as raw Ethernet frames. Callers
+ * must synchronize on the request to add or remove frames while it is open.
+ * The request is closed once it is answered or times out; after that no
+ * more frames can be added, and the thread that closed it takes the frames
+ * that were waiting.
  * @author Aaron Gember-Jacobson
  */
 public class ArpRequest 
@@ -23,8 +26,14 @@ public class ArpRequest
 	/** Number of times an ARP request packet has been sent for this request */
 	private int sentCount; 
 	
-	/** List of packets waiting on this request to be resolved */
-	private List<Ethernet> waitingPackets;
+	/** Frames waiting on this request to be resolved, oldest first */
+	private ArrayDeque<byte[]> waitingFrames;
+	
+	/** Total length of the waiting frames */
+	private int waitingBytes;
+	
+	/** True once the request has been answered or has timed out */
+	private boolean closed;
 	
 	/**
 	 * Create a request for a pending resolution of an IP address's MAC address.
@@ -37,7 +46,9 @@ public class ArpRequest
 		this.iface = iface;
 		this.lastTimeSent = 0;
 		this.sentCount = 0;
-		this.waitingPackets = new LinkedList<Ethernet>();
+		this.waitingFrames = new ArrayDeque<byte[]>();
+		this.waitingBytes = 0;
+		this.closed = false;
 	}
 	
 	/**
@@ -66,10 +77,22 @@ public class ArpRequest
 	{ return this.sentCount; }
 	
 	/**
-	 * @return list of packets waiting on this request to be resolved
+	 * @return number of frames waiting on this request to be resolved
+	 */
+	public int getWaitingCount()
+	{ return this.waitingFrames.size(); }
+	
+	/**
+	 * @return total length of the frames waiting on this request
 	 */
-	public List<Ethernet> getWaitingPackets()
-	{ return this.waitingPackets; }
+	public int getWaitingBytes()
+	{ return this.waitingBytes; }
+	
+	/**
+	 * @return true once the request has been answered or has timed out
+	 */
+	public boolean isClosed()
+	{ return this.closed; }
 	
 	/**
 	 * Update the last time an ARP request packet was sent to the current time
@@ -82,11 +105,40 @@ public class ArpRequest
 	}
 	
 	/**
-	 * Add a packet to the list of packets waiting on this request to be
-	 * resolved. All fields of the packet should be correctly filled in except 
-	 * for the destination MAC address in the Ethernet header.
-	 * @param etherPacket packet waiting on this request to be resolved
+	 * Add a frame to the frames waiting on this request to be resolved. All
+	 * fields of the frame should be correctly filled in except for the MAC
+	 * addresses in the Ethernet header.
+	 * @param frame bytes of the frame, owned by the request from now on
+	 * @return false if the request is closed and the frame was not added
 	 */
-	public void enqueuePacket(Ethernet etherPacket)
-	{ this.waitingPackets.add(etherPacket); }
+	public boolean enqueueFrame(byte[] frame)
+	{
+		if (this.closed)
+		{ return false; }
+		this.waitingFrames.addLast(frame);
+		this.waitingBytes += frame.length;
+		return true;
+	}
+	
+	/**
+	 * Remove the oldest frame waiting on this request.
+	 * @return the frame; null if no frames are waiting
+	 */
+	public byte[] dequeueFrame()
+	{
+		byte[] frame = this.waitingFrames.pollFirst();
+		if (frame != null)
+		{ this.waitingBytes -= frame.length; }
+		return frame;
+	}
+	
+	/**
+	 * Close the request, so no more frames can be added.
+	 * @return total length of the frames waiting on the request
+	 */
+	public int close()
+	{
+		this.closed = true;
+		return this.waitingBytes;
+	}
 }
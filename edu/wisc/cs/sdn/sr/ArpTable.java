@@ -0,0 +1,372 @@
+package edu.wisc.cs.sdn.sr;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Open-addressing hash table of IP address to MAC address mappings, each
+ * with the time it expires and the interface it was learned on. Keys, MAC
+ * addresses and expiry times are kept in parallel primitive arrays, so
+ * nothing is boxed or allocated to look up an address.
+ * <p>
+ * Lookups never lock: slots are read optimistically and the read is
+ * validated against a stamped lock, falling back to a read lock if a writer
+ * got in the way. Changes take the write lock. Collisions are resolved by
+ * linear probing, and removals shift later slots back, so no tombstones are
+ * left behind.
+ * <p>
+ * Each mapping also has a flag that is set when it is used to send a
+ * packet, so mappings in use can be refreshed before they expire. The flag is
+ * set without locking, and a racing change can set it on the wrong mapping or
+ * lose it; it is only a hint.
+ */
+public class ArpTable
+{
+	/** MAC address returned for IP addresses that are not in the table */
+	public static final long NO_MAC = -1;
+
+	/** Number of slots in a new table */
+	private static final int INITIAL_SIZE = 64;
+
+	/** Slots of the table; replaced as a whole when the table grows */
+	private volatile Slots slots;
+
+	/** Number of mappings in the table */
+	private int size;
+
+	/** Held for writing while the table is changed */
+	private StampedLock lock;
+
+	/**
+	 * Parallel arrays holding the table's slots.
+	 */
+	private static class Slots
+	{
+		/** IP address in each slot */
+		final int[] ips;
+
+		/** MAC address in each slot, in the lower 48 bits */
+		final long[] macs;
+
+		/** Time (in milliseconds since the epoch) each slot's mapping
+		 *  expires; 0 if the slot is empty */
+		final long[] expiries;
+
+		/** Index of the interface each slot's mapping was learned on */
+		final int[] ifaces;
+
+		/** Whether each slot's mapping was used since it was added,
+		 *  refreshed or last checked */
+		final boolean[] used;
+
+		/** Bits to shift a hashed address to obtain a slot number */
+		final int shift;
+
+		Slots(int bits)
+		{
+			this.ips = new int[1 << bits];
+			this.macs = new long[1 << bits];
+			this.expiries = new long[1 << bits];
+			this.ifaces = new int[1 << bits];
+			this.used = new boolean[1 << bits];
+			this.shift = 32 - bits;
+		}
+
+		int home(int ip)
+		{ return (ip * 0x9E3779B9) >>> this.shift; }
+
+		/**
+		 * @return slot holding an IP address; -1 if the address is not in
+		 *         the table
+		 */
+		int find(int ip)
+		{
+			int mask = this.ips.length - 1;
+			int slot = this.home(ip);
+			// Bound the probes, as a racing writer may leave no empty slot
+			// in an optimistic reader's view
+			for (int probes = 0; probes <= mask; probes++)
+			{
+				if (0 == this.expiries[slot])
+				{ return -1; }
+				if (this.ips[slot] == ip)
+				{ return slot; }
+				slot = (slot + 1) & mask;
+			}
+			return -1;
+		}
+
+		/**
+		 * Copy a slot's mapping to another slot.
+		 */
+		void move(int from, int to)
+		{
+			this.ips[to] = this.ips[from];
+			this.macs[to] = this.macs[from];
+			this.expiries[to] = this.expiries[from];
+			this.ifaces[to] = this.ifaces[from];
+			this.used[to] = this.used[from];
+		}
+	}
+
+	/**
+	 * Create an empty table.
+	 */
+	public ArpTable()
+	{
+		this.slots = new Slots(Integer.numberOfTrailingZeros(INITIAL_SIZE));
+		this.lock = new StampedLock();
+	}
+
+	/**
+	 * Look up the MAC address for an IP address.
+	 * @param ip IP address
+	 * @return MAC address, in the lower 48 bits; NO_MAC if the address is
+	 *         not in the table
+	 */
+	public long getMac(int ip)
+	{
+		long stamp = this.lock.tryOptimisticRead();
+		Slots slots = this.slots;
+		int slot = slots.find(ip);
+		long mac = (slot < 0) ? NO_MAC : slots.macs[slot];
+		if (this.lock.validate(stamp))
+		{ return mac; }
+
+		stamp = this.lock.readLock();
+		try
+		{
+			slots = this.slots;
+			slot = slots.find(ip);
+			return (slot < 0) ? NO_MAC : slots.macs[slot];
+		}
+		finally
+		{ this.lock.unlockRead(stamp); }
+	}
+
+	/**
+	 * Look up the MAC address for an IP address to send a packet, and note
+	 * that the mapping was used.
+	 * @param ip IP address
+	 * @return MAC address, in the lower 48 bits; NO_MAC if the address is
+	 *         not in the table
+	 */
+	public long use(int ip)
+	{
+		long stamp = this.lock.tryOptimisticRead();
+		Slots slots = this.slots;
+		int slot = slots.find(ip);
+		long mac = (slot < 0) ? NO_MAC : slots.macs[slot];
+		if (this.lock.validate(stamp))
+		{
+			// Only write the flag when it changes, so lookups of a mapping
+			// in use do not keep writing to the same cache line
+			if (slot >= 0 && !slots.used[slot])
+			{ slots.used[slot] = true; }
+			return mac;
+		}
+
+		stamp = this.lock.readLock();
+		try
+		{
+			slots = this.slots;
+			slot = slots.find(ip);
+			if (slot < 0)
+			{ return NO_MAC; }
+			if (!slots.used[slot])
+			{ slots.used[slot] = true; }
+			return slots.macs[slot];
+		}
+		finally
+		{ this.lock.unlockRead(stamp); }
+	}
+
+	/**
+	 * Look up when the mapping for an IP address expires.
+	 * @param ip IP address
+	 * @return time (in milliseconds since the epoch) the mapping expires; 0
+	 *         if the address is not in the table
+	 */
+	public long getExpiry(int ip)
+	{
+		long stamp = this.lock.tryOptimisticRead();
+		Slots slots = this.slots;
+		int slot = slots.find(ip);
+		long expiry = (slot < 0) ? 0 : slots.expiries[slot];
+		if (this.lock.validate(stamp))
+		{ return expiry; }
+
+		stamp = this.lock.readLock();
+		try
+		{
+			slots = this.slots;
+			slot = slots.find(ip);
+			return (slot < 0) ? 0 : slots.expiries[slot];
+		}
+		finally
+		{ this.lock.unlockRead(stamp); }
+	}
+
+	/**
+	 * Add or replace the mapping for an IP address. The mapping is marked
+	 * as not used.
+	 * @param ip IP address
+	 * @param mac MAC address, in the lower 48 bits
+	 * @param iface index of the interface the mapping was learned on
+	 * @param expiry time (in milliseconds since the epoch) the mapping
+	 *        expires; must not be 0
+	 * @return true if the address was not in the table before
+	 */
+	public boolean put(int ip, long mac, int iface, long expiry)
+	{
+		long stamp = this.lock.writeLock();
+		try
+		{
+			Slots slots = this.slots;
+			int slot = slots.find(ip);
+			if (slot >= 0)
+			{
+				slots.macs[slot] = mac;
+				slots.expiries[slot] = expiry;
+				slots.ifaces[slot] = iface;
+				slots.used[slot] = false;
+				return false;
+			}
+
+			// Keep the table at most half full, so probes stay short
+			if (2 * (this.size + 1) > slots.ips.length)
+			{ slots = this.grow(slots); }
+
+			int mask = slots.ips.length - 1;
+			slot = slots.home(ip);
+			while (slots.expiries[slot] != 0)
+			{ slot = (slot + 1) & mask; }
+			slots.ips[slot] = ip;
+			slots.macs[slot] = mac;
+			slots.expiries[slot] = expiry;
+			slots.ifaces[slot] = iface;
+			slots.used[slot] = false;
+			this.size++;
+			return true;
+		}
+		finally
+		{ this.lock.unlockWrite(stamp); }
+	}
+
+	/**
+	 * Remove the mapping for an IP address if it has expired.
+	 * @param ip IP address
+	 * @param now current time (in milliseconds since the epoch)
+	 * @return time (in milliseconds since the epoch) the mapping expires if
+	 *         it is still in the table; 0 if it was removed or was not in
+	 *         the table
+	 */
+	public long removeIfExpired(int ip, long now)
+	{
+		long stamp = this.lock.writeLock();
+		try
+		{
+			Slots slots = this.slots;
+			int slot = slots.find(ip);
+			if (slot < 0)
+			{ return 0; }
+			if (slots.expiries[slot] > now)
+			{ return slots.expiries[slot]; }
+			this.removeSlot(slots, slot);
+			this.size--;
+			return 0;
+		}
+		finally
+		{ this.lock.unlockWrite(stamp); }
+	}
+
+	/**
+	 * Check whether the mapping for an IP address was used since it was
+	 * added, refreshed or last checked, and mark it as not used.
+	 * @param ip IP address
+	 * @return index of the interface the mapping was learned on, if it was
+	 *         used; -1 if it was not used or is not in the table
+	 */
+	public int takeUsed(int ip)
+	{
+		long stamp = this.lock.writeLock();
+		try
+		{
+			Slots slots = this.slots;
+			int slot = slots.find(ip);
+			if (slot < 0 || !slots.used[slot])
+			{ return -1; }
+			slots.used[slot] = false;
+			return slots.ifaces[slot];
+		}
+		finally
+		{ this.lock.unlockWrite(stamp); }
+	}
+
+	/**
+	 * @return number of mappings in the table
+	 */
+	public int size()
+	{
+		long stamp = this.lock.readLock();
+		try
+		{ return this.size; }
+		finally
+		{ this.lock.unlockRead(stamp); }
+	}
+
+	/**
+	 * Empty a slot, moving later slots of the same probe run back so every
+	 * mapping can still be found from its home slot. Must hold the write
+	 * lock.
+	 */
+	private void removeSlot(Slots slots, int hole)
+	{
+		int mask = slots.ips.length - 1;
+		int next = hole;
+		while (true)
+		{
+			next = (next + 1) & mask;
+			if (0 == slots.expiries[next])
+			{ break; }
+
+			// A mapping can fill the hole unless its home slot lies
+			// cyclically after the hole, up to its current slot
+			int home = slots.home(slots.ips[next]);
+			boolean stays = (hole <= next)
+					? (hole < home && home <= next)
+					: (hole < home || home <= next);
+			if (!stays)
+			{
+				slots.move(next, hole);
+				hole = next;
+			}
+		}
+		slots.expiries[hole] = 0;
+	}
+
+	/**
+	 * Move the mappings to a table with twice as many slots. Must hold the
+	 * write lock.
+	 * @return the new slots
+	 */
+	private Slots grow(Slots old)
+	{
+		Slots slots = new Slots(33 - old.shift);
+		int mask = slots.ips.length - 1;
+		for (int i = 0; i < old.ips.length; i++)
+		{
+			if (0 == old.expiries[i])
+			{ continue; }
+			int slot = slots.home(old.ips[i]);
+			while (slots.expiries[slot] != 0)
+			{ slot = (slot + 1) & mask; }
+			slots.ips[slot] = old.ips[i];
+			slots.macs[slot] = old.macs[i];
+			slots.expiries[slot] = old.expiries[i];
+			slots.ifaces[slot] = old.ifaces[i];
+			slots.used[slot] = old.used[i];
+		}
+		this.slots = slots;
+		return slots;
+	}
+}
@@ -0,0 +1,372 @@
+package edu.wisc.cs.sdn.sr;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * DIR-24-8 style forwarding table. The first 24 bits of a destination IP
+ * index directly into one large array; /24 blocks that contain longer
+ * prefixes point to a second-level group of 256 slots. A lookup therefore
+ * takes one or two array reads.
+ * <p>
+ * The table is too large to copy on every change, so it is patched in place.
+ * Writers hold a stamped lock; readers do not lock, but validate their stamp
+ * after reading and only retry under a read lock if a patch overlapped.
+ * <p>
+ * Slots hold route table slots, which only mean something together with the
+ * route table snapshot they were assigned in. The table therefore records the
+ * route table generation it reflects, and a lookup on behalf of a snapshot
+ * from any other generation reports the table as stale.
+ */
+public class FlatLookupTable
+{
+	/** Returned by lookups when the table reflects a different generation of
+	 *  the route table than the caller's */
+	public static final int STALE = -2;
+
+	/** Number of slots in a second-level group */
+	private static final int GROUP_SIZE = 256;
+
+	/** First-level slots; 0 means no route, a positive value is a route slot
+	 *  plus one, and a negative value is the complement of a group number */
+	private final int[] tbl24;
+
+	/** Second-level groups; each slot is 0 or a route slot plus one */
+	private int[] tbl8;
+
+	/** Number of groups allocated in tbl8 */
+	private int groupCount;
+
+	/** Group numbers that can be reused */
+	private int[] freeGroups;
+	private int freeGroupCount;
+
+	/** Prefix length of each route, indexed by route slot plus one */
+	private int[] routeLengths;
+
+	/** Generation of the route table the slots reflect */
+	private int generation;
+
+	/** Held for writing while the table is patched */
+	private final StampedLock lock;
+
+	/**
+	 * Initialize an empty table.
+	 * @param generation generation of the route table the table reflects
+	 */
+	public FlatLookupTable(int generation)
+	{
+		this.tbl24 = new int[1 << 24];
+		this.lock = new StampedLock();
+		this.reset();
+		this.generation = generation;
+	}
+
+	/**
+	 * Remove all routes from the table.
+	 * @param generation generation of the route table after the change
+	 */
+	public void clear(int generation)
+	{
+		long stamp = this.lock.writeLock();
+		try
+		{
+			this.reset();
+			this.generation = generation;
+		}
+		finally
+		{ this.lock.unlockWrite(stamp); }
+	}
+
+	private void reset()
+	{
+		Arrays.fill(this.tbl24, 0);
+		this.tbl8 = new int[16 * GROUP_SIZE];
+		this.groupCount = 0;
+		this.freeGroups = new int[16];
+		this.freeGroupCount = 0;
+		this.routeLengths = new int[64];
+	}
+
+	/**
+	 * Record a change to the route table that does not move any prefix.
+	 * @param generation generation of the route table after the change
+	 */
+	public void setGeneration(int generation)
+	{
+		long stamp = this.lock.writeLock();
+		this.generation = generation;
+		this.lock.unlockWrite(stamp);
+	}
+
+	/**
+	 * Find the route for the longest prefix that matches an IP address.
+	 * @param ip destination IP address
+	 * @param generation generation of the route table snapshot the caller
+	 *        resolves route slots in
+	 * @return slot of the matching route; -1 if no prefix matches; STALE if
+	 *         the table does not reflect the given generation
+	 */
+	public int lookup(int ip, int generation)
+	{
+		long stamp = this.lock.tryOptimisticRead();
+		int route = this.read(ip, generation);
+		if (this.lock.validate(stamp))
+		{ return route; }
+
+		// A patch overlapped the read, so wait for it to finish
+		stamp = this.lock.readLock();
+		try
+		{ return this.read(ip, generation); }
+		finally
+		{ this.lock.unlockRead(stamp); }
+	}
+
+	/**
+	 * Find the routes for the longest prefixes that match a batch of IP
+	 * addresses. The whole batch is read under one stamp.
+	 * @param ips destination IP addresses
+	 * @param routes filled with the slot of the matching route for each 
+	 *        address; -1 if no prefix matches
+	 * @param count number of addresses
+	 * @param generation generation of the route table snapshot the caller
+	 *        resolves route slots in
+	 * @return true if the routes were filled; false if the table does not
+	 *         reflect the given generation
+	 */
+	public boolean lookup(int[] ips, int[] routes, int count, int generation)
+	{
+		long stamp = this.lock.tryOptimisticRead();
+		boolean filled = this.read(ips, routes, count, generation);
+		if (this.lock.validate(stamp))
+		{ return filled; }
+
+		// A patch overlapped the reads, so wait for it to finish
+		stamp = this.lock.readLock();
+		try
+		{ return this.read(ips, routes, count, generation); }
+		finally
+		{ this.lock.unlockRead(stamp); }
+	}
+
+	private boolean read(int[] ips, int[] routes, int count, int generation)
+	{
+		for (int i = 0; i < count; i++)
+		{
+			int route = this.read(ips[i], generation);
+			if (STALE == route)
+			{ return false; }
+			routes[i] = route;
+		}
+		return true;
+	}
+
+	/**
+	 * Read the slots for an IP address. Arrays may be swapped by a
+	 * concurrent patch, so indexes are bounds checked rather than trusted.
+	 */
+	private int read(int ip, int generation)
+	{
+		if (this.generation != generation)
+		{ return STALE; }
+		int value = this.tbl24[ip >>> 8];
+		if (value < 0)
+		{
+			int[] groups = this.tbl8;
+			int slot = (~value) * GROUP_SIZE + (ip & 0xFF);
+			if (slot >= groups.length)
+			{ return STALE; }
+			value = groups[slot];
+		}
+		return value - 1;
+	}
+
+	/**
+	 * Add a route to the table. Slots covered by the prefix are taken over
+	 * unless they already belong to a longer prefix.
+	 * @param route slot of the route in the route table
+	 * @param prefix destination IP of the prefix
+	 * @param length prefix length
+	 * @param generation generation of the route table after the change
+	 */
+	public void add(int route, int prefix, int length, int generation)
+	{
+		long stamp = this.lock.writeLock();
+		try
+		{
+			this.insert(route + 1, prefix & RouteTrie.lengthToMask(length),
+					length);
+			this.generation = generation;
+		}
+		finally
+		{ this.lock.unlockWrite(stamp); }
+	}
+
+	private void insert(int value, int prefix, int length)
+	{
+		if (value >= this.routeLengths.length)
+		{
+			this.routeLengths = Arrays.copyOf(this.routeLengths,
+					Math.max(value + 1, this.routeLengths.length * 2));
+		}
+		this.routeLengths[value] = length;
+
+		if (length <= 24)
+		{
+			int first = prefix >>> 8;
+			int last = first + (1 << (24 - length));
+			for (int i = first; i < last; i++)
+			{
+				int slot = this.tbl24[i];
+				if (slot < 0)
+				{
+					int base = (~slot) * GROUP_SIZE;
+					this.fill(base, base + GROUP_SIZE, value, length);
+				}
+				else if (this.routeLengths[slot] <= length)
+				{ this.tbl24[i] = value; }
+			}
+		}
+		else
+		{
+			int base = this.groupFor(prefix >>> 8) * GROUP_SIZE;
+			int first = base + (prefix & 0xFF);
+			this.fill(first, first + (1 << (32 - length)), value, length);
+		}
+	}
+
+	/**
+	 * Remove a route from the table. Slots that belonged to the route are
+	 * handed to the next shorter matching prefix.
+	 * @param route slot of the route in the route table
+	 * @param prefix destination IP of the prefix
+	 * @param length prefix length
+	 * @param replacement slot of the route for the longest shorter prefix
+	 *        covering the removed prefix; -1 if there is none
+	 * @param generation generation of the route table after the change
+	 */
+	public void remove(int route, int prefix, int length, int replacement,
+			int generation)
+	{
+		long stamp = this.lock.writeLock();
+		try
+		{
+			this.delete(route + 1, prefix & RouteTrie.lengthToMask(length),
+					length, replacement + 1);
+			this.generation = generation;
+		}
+		finally
+		{ this.lock.unlockWrite(stamp); }
+	}
+
+	private void delete(int value, int prefix, int length, int newValue)
+	{
+		if (length <= 24)
+		{
+			int first = prefix >>> 8;
+			int last = first + (1 << (24 - length));
+			for (int i = first; i < last; i++)
+			{
+				int slot = this.tbl24[i];
+				if (slot < 0)
+				{
+					int base = (~slot) * GROUP_SIZE;
+					this.replaceValue(base, base + GROUP_SIZE, value,
+							newValue);
+				}
+				else if (slot == value)
+				{ this.tbl24[i] = newValue; }
+			}
+		}
+		else
+		{
+			int block = prefix >>> 8;
+			if (this.tbl24[block] >= 0)
+			{ return; }
+			int group = ~this.tbl24[block];
+			int first = group * GROUP_SIZE + (prefix & 0xFF);
+			this.replaceValue(first, first + (1 << (32 - length)), value,
+					newValue);
+			this.collapseGroup(block, group);
+		}
+		this.routeLengths[value] = 0;
+	}
+
+	/**
+	 * Set slots in a range of tbl8 to a route, unless they belong to a
+	 * longer prefix.
+	 */
+	private void fill(int from, int to, int value, int length)
+	{
+		for (int i = from; i < to; i++)
+		{
+			if (this.routeLengths[this.tbl8[i]] <= length)
+			{ this.tbl8[i] = value; }
+		}
+	}
+
+	/**
+	 * Replace one route with another in a range of tbl8.
+	 */
+	private void replaceValue(int from, int to, int oldValue, int newValue)
+	{
+		for (int i = from; i < to; i++)
+		{
+			if (this.tbl8[i] == oldValue)
+			{ this.tbl8[i] = newValue; }
+		}
+	}
+
+	/**
+	 * Get the group for a /24 block, creating it if the block has none.
+	 * @param block first 24 bits of an IP address
+	 * @return group number
+	 */
+	private int groupFor(int block)
+	{
+		int slot = this.tbl24[block];
+		if (slot < 0)
+		{ return ~slot; }
+
+		int group;
+		if (this.freeGroupCount > 0)
+		{ group = this.freeGroups[--this.freeGroupCount]; }
+		else
+		{
+			group = this.groupCount++;
+			if (this.groupCount * GROUP_SIZE > this.tbl8.length)
+			{ this.tbl8 = Arrays.copyOf(this.tbl8, this.tbl8.length * 2); }
+		}
+		int base = group * GROUP_SIZE;
+		Arrays.fill(this.tbl8, base, base + GROUP_SIZE, slot);
+		this.tbl24[block] = ~group;
+		return group;
+	}
+
+	/**
+	 * Release a group if it no longer holds any prefix longer than /24.
+	 */
+	private void collapseGroup(int block, int group)
+	{
+		int base = group * GROUP_SIZE;
+		int first = this.tbl8[base];
+		if (this.routeLengths[first] > 24)
+		{ return; }
+		for (int i = base + 1; i < base + GROUP_SIZE; i++)
+		{
+			if (this.tbl8[i] != first)
+			{ return; }
+		}
+		this.tbl24[block] = first;
+		this.freeGroups = this.push(this.freeGroups, this.freeGroupCount++,
+				group);
+	}
+
+	private int[] push(int[] stack, int size, int value)
+	{
+		if (size >= stack.length)
+		{ stack = Arrays.copyOf(stack, stack.length * 2); }
+		stack[size] = value;
+		return stack;
+	}
+}
@@ -10,24 +10,41 @@ import net.floodlightcontroller.util.MACAddress;
 public class Iface 
 {
 	private String name;
-	private MACAddress macAddress;
+	
+	/** Small index for the interface, shared with the route table */
+	private int index;
+	
+	/** MAC address in the lower 48 bits */
+	private long macAddress;
 	private int ipAddress;
     private int subnetMask;
 	
 	public Iface(String name)
 	{
 		this.name = name;
-		this.macAddress = null;
+		this.macAddress = 0;
 		this.ipAddress = 0;
 	}
 	
 	public String getName()
 	{ return this.name; }
 	
-	public void setMacAddress(MACAddress mac)
+	public void setIndex(int index)
+	{ this.index = index; }
+	
+	/**
+	 * @return index of the interface in the router's interface table
+	 */
+	public int getIndex()
+	{ return this.index; }
+	
+	public void setMacAddress(long mac)
 	{ this.macAddress = mac; }
 	
-	public MACAddress getMacAddress()
+	/**
+	 * @return MAC address of the interface, in the lower 48 bits
+	 */
+	public long getMacAddress()
 	{ return this.macAddress; }
 
 	public void setIpAddress(int ip)
@@ -45,7 +62,7 @@ public class Iface
 	public String toString()
 	{
 		return String.format("%s\tHWaddr %s\n\tinet addr %s mask %s",
-				this.name, this.macAddress.toString(), 
+				this.name, MACAddress.toString(this.macAddress), 
 				IPv4.fromIPv4Address(this.ipAddress),
                 IPv4.fromIPv4Address(this.subnetMask));
 	}
@@ -1,7 +1,10 @@
 package edu.wisc.cs.sdn.sr;
 
+import java.io.File;
+
 import edu.wisc.cs.sdn.sr.vns.Command;
 import edu.wisc.cs.sdn.sr.vns.VNSComm;
+import net.floodlightcontroller.packet.PacketPool;
 
 public class Main 
 {
@@ -10,6 +13,7 @@ public class Main
 	private static final short DEFAULT_TOPO = 0;
 	private static final String DEFAULT_HOST = "r1";
 	private static final String DEFAULT_SERVER = "localhost";
+	private static final int POOL_SIZE = 64;
 	
 	public static void main(String[] args)
 	{
@@ -17,10 +21,15 @@ public class Main
 		String user = null;
 		String server = DEFAULT_SERVER;
 		String routeTableFile = null;
+		String routeSnapshotFile = null;
 		String logfile = null;
 		String template = null;
 		short port = DEFAULT_PORT;
 		short topo = DEFAULT_TOPO;
+		boolean flatLookup = false;
+		int routeCacheSize = RouteCache.DEFAULT_SIZE;
+		boolean pooling = false;
+		boolean detectLeaks = false;
 		Router router = null;
 		VNSComm vnsComm = null;
 		
@@ -51,11 +60,33 @@ public class Main
 			{ routeTableFile = args[++i]; }
 			else if (arg.equals("-T"))
 			{ template = args[++i]; }
+			else if (arg.equals("-f"))
+			{ flatLookup = true; }
+			else if (arg.equals("-c"))
+			{ routeCacheSize = Integer.parseInt(args[++i]); }
+			else if (arg.equals("-b"))
+			{ routeSnapshotFile = args[++i]; }
+			else if (arg.equals("-P"))
+			{ pooling = true; }
+			else if (arg.equals("-D"))
+			{ detectLeaks = true; }
+			else if (arg.equals("-L"))
+			{ Trace.setLevel(Trace.Level.valueOf(args[++i].toUpperCase())); }
 		}
 		
 		// Create router instance
 		router = new Router(topo, host, user, template);
 		
+		// Use the DIR-24-8 forwarding table for route lookups
+		if (flatLookup)
+		{ router.getRouteTable().setFlatLookup(true); }
+		router.setRouteCacheSize(routeCacheSize);
+		
+		// Restore routes saved when the router last shut down
+		boolean snapshotLoaded = false;
+		if (routeSnapshotFile != null && new File(routeSnapshotFile).exists())
+		{ snapshotLoaded = router.loadRouteSnapshot(routeSnapshotFile); }
+		
 		// Load routing table from file
 		/*if (null == template)
 		{ router.loadRouteTable(rtable); }
@@ -81,6 +112,13 @@ public class Main
 		{ System.out.println("Requesting topology "+topo); }
 		vnsComm = new VNSComm(router);
 		router.setVNSComm(vnsComm);
+		
+		// Recycle receive buffers and decoded packets
+		if (pooling)
+		{
+			vnsComm.setPooling(POOL_SIZE, detectLeaks);
+			router.setPacketPool(new PacketPool(POOL_SIZE, detectLeaks));
+		}
 		if (!vnsComm.connectToServer(port, server))
 		{ System.exit(1); }
 
@@ -90,9 +128,10 @@ public class Main
 			System.out.println(String.format(
 					"Connected to new instantiation of topology template %s", 
 					template));
-			router.loadRouteTable("rtable." + host);
+			if (!snapshotLoaded)
+			{ router.loadRouteTable("rtable." + host); }
 		}
-		else if (routeTableFile != null)
+		else if (routeTableFile != null && !snapshotLoaded)
 		{
 			// Read from specified routing table
 			router.loadRouteTable(routeTableFile);
@@ -108,6 +147,8 @@ public class Main
 		
 		// Shutdown the router
 		router.destroy();
+		if (routeSnapshotFile != null)
+		{ router.saveRouteSnapshot(routeSnapshotFile); }
 		
 		System.exit(0);
 	}
@@ -118,7 +159,9 @@ public class Main
 		System.out.println("Main [-h] [-v host] [-s server] [-p port]");
 		System.out.println("     [-T template_name] [-u username]");
 		System.out.println("     [-t topo_id] [-r routing_table]");
-		System.out.println("     [-l log_file]");
+		System.out.println("     [-l log_file] [-f] [-c route_cache_size]");
+		System.out.println("     [-b route_snapshot] [-P] [-D]");
+		System.out.println("     [-L off|info|debug|packet]");
 		System.out.println(String.format("  defaults server=%s port=%d host=%s", 
 				DEFAULT_SERVER, DEFAULT_PORT, DEFAULT_HOST));
 	}
@@ -0,0 +1,182 @@
+package edu.wisc.cs.sdn.sr;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from a prefix (destination IP and prefix length,
+ * packed into a primitive long) to a route table slot. Lookups, inserts and
+ * removals take constant expected time and never box their keys.
+ */
+public class PrefixIndex
+{
+	/** Marks an unused key; no packed prefix has all low 32 bits set */
+	private static final long EMPTY = -1L;
+
+	/** Keys, probed linearly from their hash, each followed by its slot so
+	 *  a probe touches a single cache line */
+	private long[] table;
+
+	/** Number of keys the table has room for; a power of two */
+	private int capacity;
+
+	/** Number of keys in the map */
+	private int size;
+
+	/** Bits to shift a hashed key to obtain a position */
+	private int shift;
+
+	/**
+	 * Initialize an empty index.
+	 */
+	public PrefixIndex()
+	{ this.clear(); }
+
+	/**
+	 * Pack a prefix into a key.
+	 * @param prefix destination IP of the prefix
+	 * @param length prefix length
+	 * @return key for the prefix; host bits of the destination are ignored
+	 */
+	public static long key(int prefix, int length)
+	{
+		prefix &= RouteTrie.lengthToMask(length);
+		return ((long)prefix << 32) | length;
+	}
+
+	/**
+	 * Remove all keys from the index.
+	 */
+	public void clear()
+	{
+		this.allocate(16);
+		this.size = 0;
+	}
+
+	private void allocate(int capacity)
+	{
+		this.capacity = capacity;
+		this.table = new long[capacity * 2];
+		for (int i = 0; i < this.table.length; i += 2)
+		{ this.table[i] = EMPTY; }
+		this.shift = 64 - Integer.numberOfTrailingZeros(capacity);
+	}
+
+	/**
+	 * Make room for a number of keys without resizing again.
+	 * @param capacity number of keys the index should hold
+	 */
+	public void ensureCapacity(int capacity)
+	{
+		int needed = this.capacity;
+		while (capacity * 2 > needed)
+		{ needed *= 2; }
+		if (needed != this.capacity)
+		{ this.resize(needed); }
+	}
+
+	/**
+	 * @return number of keys in the index
+	 */
+	public int size()
+	{ return this.size; }
+
+	/**
+	 * @return index in the table of the first position to probe for a key
+	 */
+	private int position(long key)
+	{ return (int)((key * 0x9E3779B97F4A7C15L) >>> this.shift) << 1; }
+
+	/**
+	 * Find the slot for a prefix.
+	 * @param key packed prefix
+	 * @return slot for the prefix; -1 if the prefix is not in the index
+	 */
+	public int get(long key)
+	{
+		int mask = this.table.length - 1;
+		for (int i = this.position(key); ; i = (i + 2) & mask)
+		{
+			long current = this.table[i];
+			if (current == key)
+			{ return (int)this.table[i + 1]; }
+			if (EMPTY == current)
+			{ return -1; }
+		}
+	}
+
+	/**
+	 * Set the slot for a prefix.
+	 * @param key packed prefix
+	 * @param value slot for the prefix
+	 * @return previous slot for the prefix; -1 if the prefix was not in the
+	 *         index
+	 */
+	public int put(long key, int value)
+	{
+		int mask = this.table.length - 1;
+		int i = this.position(key);
+		for (; this.table[i] != EMPTY; i = (i + 2) & mask)
+		{
+			if (this.table[i] == key)
+			{
+				int previous = (int)this.table[i + 1];
+				this.table[i + 1] = value;
+				return previous;
+			}
+		}
+		this.table[i] = key;
+		this.table[i + 1] = value;
+		this.size++;
+
+		// Keep the load factor at or below one half
+		if (this.size * 2 > this.capacity)
+		{ this.resize(this.capacity * 2); }
+		return -1;
+	}
+
+	/**
+	 * Remove a prefix.
+	 * @param key packed prefix
+	 * @return slot the prefix had; -1 if the prefix was not in the index
+	 */
+	public int remove(long key)
+	{
+		int mask = this.table.length - 1;
+		int i = this.position(key);
+		for (; this.table[i] != key; i = (i + 2) & mask)
+		{
+			if (EMPTY == this.table[i])
+			{ return -1; }
+		}
+		int removed = (int)this.table[i + 1];
+		this.size--;
+
+		// Shift later keys in the probe sequence back into the gap
+		int gap = i;
+		for (int j = (gap + 2) & mask; this.table[j] != EMPTY;
+				j = (j + 2) & mask)
+		{
+			int home = this.position(this.table[j]);
+			if (((j - home) & mask) >= ((j - gap) & mask))
+			{
+				this.table[gap] = this.table[j];
+				this.table[gap + 1] = this.table[j + 1];
+				gap = j;
+			}
+		}
+		this.table[gap] = EMPTY;
+		return removed;
+	}
+
+	private void resize(int capacity)
+	{
+		long[] old = this.table;
+		this.allocate(capacity);
+		this.size = 0;
+		for (int i = 0; i < old.length; i += 2)
+		{
+			if (old[i] != EMPTY)
+			{ this.put(old[i], (int)old[i + 1]); }
+		}
+	}
+}
@@ -5,19 +5,16 @@ import net.floodlightcontroller.packet.IPv4;
 import net.floodlightcontroller.packet.RIPv2;
 import net.floodlightcontroller.packet.RIPv2Entry;
 import net.floodlightcontroller.packet.UDP;
+import net.floodlightcontroller.util.MACAddress;
 
 import java.util.Timer;
 import java.util.Random;
-import java.util.List;
-import java.util.LinkedList;
 import java.util.Iterator;
 /**
   * Implements RIP.  * @author Anubhavnidhi Abhashkumar and Aaron Gember-Jacobson */
 public class RIP implements Runnable
 {
     public static final int RIP_MULTICAST_IP = 0xE0000009;
-    private static final byte[] BROADCAST_MAC = {(byte)0xFF, (byte)0xFF, 
-            (byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFF};
     
     public static final int MAX_HOPS = 16;
 
@@ -42,7 +39,7 @@ public class RIP implements Runnable
 	public void init()
 	{
         // If we are using static routing, then don't do anything
-        if (this.router.getRouteTable().getEntries().size() > 0)
+        if (this.router.getRouteTable().isStaticRouting())
         { return; }
 
         System.out.println("RIP: Build initial routing table");
@@ -88,46 +85,34 @@ public class RIP implements Runnable
         /* TODO: Handle RIP packet                                           */
 
         /*********************************************************************/
-		System.out.println("RECVPKT");
+		Trace.log(Trace.Level.DEBUG, "RECVPKT");
 
 		// Response received, update routing table
 		if(ripPacket.getCommand() == ((byte)2))
 		{
 			boolean updated = false;
 
-			for(RIPv2Entry entry : ripPacket.getEntries())
+			// Apply the advertised routes as one change to the route table
+			this.router.getRouteTable().beginBatch();
+			try
 			{
-				//check to see if it is already in the routetable if it
-				//isn't add it, if is update
-				RouteTable routeTable;
-				RouteTableEntry rte;
-				
-				routeTable = this.router.getRouteTable();
-				rte = routeTable.findEntry(	entry.getAddress(),
-											entry.getSubnetMask() );
-
-				// Ignore routes with too many hops
-				if(entry.getMetric()+1 <= MAX_HOPS)
+				for(RIPv2Entry entry : ripPacket.getEntries())
 				{
-					if(rte == null)
-					{
-						routeTable.addEntry(	entry.getAddress(),
-												entry.getNextHopAddress(),
-												entry.getSubnetMask(),
-												inIface.getName(),
-												entry.getMetric() );
+					//check to see if it is already in the routetable if it
+					//isn't add it, if is update
+					RouteTable routeTable;
+					RouteTableEntry rte;
+				
+					routeTable = this.router.getRouteTable();
+					rte = routeTable.findEntry(	entry.getAddress(),
+												entry.getSubnetMask() );
 
-						updated = true;
-					}
-					else
+					// Ignore routes with too many hops
+					if(entry.getMetric()+1 <= MAX_HOPS)
 					{
-						// Update routing table if received route has smaller
-						// number of hops
-						if(rte.getDestinationAddress() == entry.getAddress()
-						&& rte.getMaskAddress() == entry.getSubnetMask()
-						&& rte.getMetric() > entry.getMetric())
+						if(rte == null)
 						{
-							routeTable.updateEntry(	entry.getAddress(),
+							routeTable.addEntry(	entry.getAddress(),
 													entry.getNextHopAddress(),
 													entry.getSubnetMask(),
 													inIface.getName(),
@@ -135,21 +120,58 @@ public class RIP implements Runnable
 
 							updated = true;
 						}
-						else if(rte.getDestinationAddress() == entry.getAddress()
-						&& rte.getMaskAddress() == entry.getSubnetMask()
-						&& rte.getMetric() == entry.getMetric())
+						else
 						{
-							rte.updateTimestamp();
+							// Update routing table if received route has smaller
+							// number of hops
+							if(rte.getDestinationAddress() == entry.getAddress()
+							&& rte.getMaskAddress() == entry.getSubnetMask()
+							&& rte.getMetric() > entry.getMetric())
+							{
+								routeTable.updateEntry(	entry.getAddress(),
+														entry.getSubnetMask(),
+														entry.getNextHopAddress(),
+														inIface.getName(),
+														entry.getMetric() );
+
+								updated = true;
+							}
+							else if(rte.getDestinationAddress() == entry.getAddress()
+							&& rte.getMaskAddress() == entry.getSubnetMask()
+							&& rte.getMetric() == entry.getMetric())
+							{
+								// Equal-cost route through another neighbor
+								// becomes an additional path
+								if(routeTable.addPath(	entry.getAddress(),
+														entry.getSubnetMask(),
+														entry.getNextHopAddress(),
+														inIface.getName() ))
+								{
+									updated = true;
+								}
+								else
+								{
+									// Only the path through the sender is
+									// still alive
+									routeTable.touchPath(	entry.getAddress(),
+															entry.getSubnetMask(),
+															entry.getNextHopAddress(),
+															inIface.getName() );
+								}
+							}
 						}
 					}
 				}
-
-				System.out.println(	"Routing table updated: \n"+
-									routeTable.toString() );
+			}
+			finally
+			{
+				this.router.getRouteTable().endBatch();
 			}
 			
 			if(updated)
 			{
+				Trace.log(Trace.Level.DEBUG, "Routing table updated: \n",
+						this.router.getRouteTable());
 				this.sendRip((byte)2);
 			}
 		}
@@ -159,12 +181,13 @@ public class RIP implements Runnable
 			this.sendRip(	(byte)2,
 							inIface,
 							ipPacket.getSourceAddress(),
-							etherPacket.getSourceMAC().toString() );
+							etherPacket.getSourceMACAsLong() );
 		}
 	}
 
-	// Set inIface = null, dest = -1, and destMac = null to broadcast
-    private void sendRip(byte command, Iface inIface, int dest, String destMac)
+	// Set inIface = null, dest = -1, and destMac = MACAddress.BROADCAST to
+	// broadcast
+    private void sendRip(byte command, Iface inIface, int dest, long destMac)
 	{
 		Iterator<Iface> ifaceIter
 			= this.router.getInterfaces().values().iterator();
@@ -223,7 +246,7 @@ public class RIP implements Runnable
 			IPv4 ipPacket = new IPv4();
 			Ethernet etherPacket = new Ethernet();
 
-			System.out.println("SENDRIP");
+			Trace.log(Trace.Level.DEBUG, "SENDRIP");
 
 			udpPacket.setSourcePort(UDP.RIP_PORT);
 			udpPacket.setDestinationPort(UDP.RIP_PORT);
@@ -240,16 +263,8 @@ public class RIP implements Runnable
 			ipPacket.serialize(); // trigger checksum calculation
 
 			etherPacket.setEtherType(Ethernet.TYPE_IPv4);
-			etherPacket.setSourceMACAddress(iface.getMacAddress().toString());
-
-			if(destMac == null)
-			{
-				etherPacket.setDestinationMACAddress(BROADCAST_MAC);
-			}
-			else
-			{
-				etherPacket.setDestinationMACAddress(destMac);
-			}
+			etherPacket.setSourceMACAddress(iface.getMacAddress());
+			etherPacket.setDestinationMACAddress(destMac);
 
 			etherPacket.setPayload(ipPacket);
 
@@ -259,7 +274,7 @@ public class RIP implements Runnable
 
     private void sendRip(byte command)
 	{
-		this.sendRip(command, null, -1, null);
+		this.sendRip(command, null, -1, MACAddress.BROADCAST);
 	}
 
     /**
@@ -284,24 +299,8 @@ public class RIP implements Runnable
 			}
 
 			// Remove expired routing table entries
-			List<RouteTableEntry> rteToRemove
-				= new LinkedList<RouteTableEntry>();
-
-			for(RouteTableEntry rte : this.router.getRouteTable().getEntries())
-			{
-				if(rte.getGatewayAddress() != 0
-				&& System.currentTimeMillis()/1000L-rte.getTimestamp()
-				>= TIMEOUT)
-				{
-					rteToRemove.add(rte);
-				}
-			}
-			
-			for(RouteTableEntry rte : rteToRemove)
-			{
-				this.router.getRouteTable().removeEntry
-					(rte.getDestinationAddress(), rte.getMaskAddress());
-			}
+			this.router.getRouteTable().removeExpiredEntries(
+					System.currentTimeMillis()/1000L - TIMEOUT);
 
 			this.sendRip((byte)2);
         }
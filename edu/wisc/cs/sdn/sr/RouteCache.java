@@ -0,0 +1,201 @@
+package edu.wisc.cs.sdn.sr;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Direct-mapped cache of destination IP to route table slot, placed in front
+ * of the route table's longest prefix match. Each slot remembers the route
+ * table generation it was filled at, so any change to the route table
+ * invalidates every slot at once.
+ * <p>
+ * Hits never lock: slots are read optimistically and the read is validated
+ * against a stamped lock. A miss fills its slot only if no other thread is
+ * filling one at the same time.
+ */
+public class RouteCache
+{
+	/** Default number of slots in the cache */
+	public static final int DEFAULT_SIZE = 1024;
+
+	/** Destination IP address cached in each slot */
+	private int[] addresses;
+
+	/** Route table generation each slot was filled at; 0 if the slot is
+	 *  empty */
+	private int[] generations;
+
+	/** Route table slot of the route cached in each slot; -1 if the
+	 *  destination has no route */
+	private int[] routes;
+
+	/** Bits to shift a hashed address to obtain a slot number */
+	private int shift;
+
+	/** Held for writing while a slot is filled */
+	private StampedLock lock;
+
+	/** Number of lookups answered from the cache */
+	private LongAdder hits;
+
+	/** Number of lookups passed on to the route table */
+	private LongAdder misses;
+
+	/**
+	 * Create an empty cache.
+	 * @param size number of slots; rounded up to a power of two
+	 */
+	public RouteCache(int size)
+	{
+		int bits = 32 - Integer.numberOfLeadingZeros(Math.max(size, 2) - 1);
+		this.addresses = new int[1 << bits];
+		this.generations = new int[1 << bits];
+		this.routes = new int[1 << bits];
+		this.shift = 32 - bits;
+		this.lock = new StampedLock();
+		this.hits = new LongAdder();
+		this.misses = new LongAdder();
+	}
+
+	/**
+	 * Find the route for a destination IP address, consulting the route
+	 * table and filling the cache on a miss.
+	 * @param ip destination IP address
+	 * @param routes snapshot of the route table backing the cache; the
+	 *        returned slot belongs to this snapshot
+	 * @return slot of the best matching route; -1 if no route matches
+	 */
+	public int lookup(int ip, RouteTable.Snapshot routes)
+	{
+		// Take the generation and the lookup from the same snapshot, so a
+		// slot never holds a route older than its generation
+		int generation = routes.getGeneration();
+		int slot = (ip * 0x9E3779B9) >>> this.shift;
+
+		long stamp = this.lock.tryOptimisticRead();
+		if (this.generations[slot] == generation
+				&& this.addresses[slot] == ip)
+		{
+			int route = this.routes[slot];
+			if (this.lock.validate(stamp))
+			{
+				this.hits.increment();
+				return route;
+			}
+		}
+
+		this.misses.increment();
+		int route = routes.lookup(ip);
+		stamp = this.lock.tryWriteLock();
+		if (stamp != 0)
+		{
+			this.addresses[slot] = ip;
+			this.generations[slot] = generation;
+			this.routes[slot] = route;
+			this.lock.unlockWrite(stamp);
+		}
+		return route;
+	}
+
+	/**
+	 * Find the routes for a batch of destination IP addresses. The whole 
+	 * batch is probed under one optimistic read; the misses are then looked
+	 * up in the route table together, and their slots filled under one 
+	 * write lock.
+	 * @param ips destination IP addresses
+	 * @param matches filled with the slot of the best matching route for
+	 *        each address; -1 if no route matches
+	 * @param count number of addresses
+	 * @param routes snapshot of the route table backing the cache; the
+	 *        returned slots belong to this snapshot
+	 */
+	public void lookup(int[] ips, int[] matches, int count,
+			RouteTable.Snapshot routes)
+	{
+		int generation = routes.getGeneration();
+		int[] missIndexes = null;
+		int[] missIps = null;
+		int missCount = 0;
+
+		long stamp = this.lock.tryOptimisticRead();
+		for (int i = 0; i < count; i++)
+		{
+			int ip = ips[i];
+			int slot = (ip * 0x9E3779B9) >>> this.shift;
+			if (this.generations[slot] == generation
+					&& this.addresses[slot] == ip)
+			{
+				matches[i] = this.routes[slot];
+				continue;
+			}
+			if (null == missIndexes)
+			{
+				missIndexes = new int[count];
+				missIps = new int[count];
+			}
+			missIndexes[missCount] = i;
+			missIps[missCount] = ip;
+			missCount++;
+		}
+
+		// A fill overlapped the probes, so none of the hits can be trusted
+		if (!this.lock.validate(stamp))
+		{
+			missIndexes = new int[count];
+			missIps = new int[count];
+			for (int i = 0; i < count; i++)
+			{
+				missIndexes[i] = i;
+				missIps[i] = ips[i];
+			}
+			missCount = count;
+		}
+
+		this.hits.add(count - missCount);
+		if (0 == missCount)
+		{ return; }
+		this.misses.add(missCount);
+
+		int[] missRoutes = new int[missCount];
+		routes.lookup(missIps, missRoutes, missCount);
+		for (int i = 0; i < missCount; i++)
+		{ matches[missIndexes[i]] = missRoutes[i]; }
+
+		stamp = this.lock.tryWriteLock();
+		if (stamp != 0)
+		{
+			for (int i = 0; i < missCount; i++)
+			{
+				int slot = (missIps[i] * 0x9E3779B9) >>> this.shift;
+				this.addresses[slot] = missIps[i];
+				this.generations[slot] = generation;
+				this.routes[slot] = missRoutes[i];
+			}
+			this.lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * @return number of slots in the cache
+	 */
+	public int getSize()
+	{ return this.addresses.length; }
+
+	/**
+	 * @return number of lookups answered from the cache
+	 */
+	public long getHits()
+	{ return this.hits.sum(); }
+
+	/**
+	 * @return number of lookups passed on to the route table
+	 */
+	public long getMisses()
+	{ return this.misses.sum(); }
+
+	public String toString()
+	{
+		return String.format("Route cache: %d slots, %d hits, %d misses",
+				this.addresses.length, this.getHits(), this.getMisses());
+	}
+}
@@ -0,0 +1,265 @@
+package edu.wisc.cs.sdn.sr;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Streaming parser for static route table files. Each line holds a
+ * destination IP, gateway IP and subnet mask in dotted decimal format,
+ * followed by an interface name, separated by whitespace; blank lines are
+ * skipped.
+ * <p>
+ * Lines are parsed straight out of a large read buffer without creating any
+ * strings, except for interface names, which are only created when a line
+ * names a different interface than the line before it.
+ */
+public class RouteFileParser
+{
+	/** Size of the read buffer; also the longest line accepted */
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	/** Channel the file is read from */
+	private final ReadableByteChannel channel;
+
+	/** Read buffer, and the array backing it */
+	private final ByteBuffer buffer;
+	private final byte[] bytes;
+
+	/** Start of the unparsed bytes in the buffer */
+	private int position;
+
+	/** End of the bytes read into the buffer */
+	private int limit;
+
+	/** True once the channel has no more bytes */
+	private boolean eof;
+
+	/** Current position while a line is parsed */
+	private int cursor;
+
+	/** Number of the last line read, counting from 1 */
+	private int lineNumber;
+
+	/** Fields of the last route parsed */
+	private int destinationAddress;
+	private int gatewayAddress;
+	private int maskAddress;
+	private String interfaceName;
+
+	/** Bytes of the last interface name */
+	private byte[] interfaceBytes;
+
+	/**
+	 * Create a parser for a route table file.
+	 * @param channel channel to read the file from
+	 */
+	public RouteFileParser(ReadableByteChannel channel)
+	{
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		this.bytes = this.buffer.array();
+		this.position = 0;
+		this.limit = 0;
+		this.eof = false;
+		this.lineNumber = 0;
+		this.interfaceBytes = new byte[0];
+	}
+
+	/**
+	 * @return number of the last line read, counting from 1
+	 */
+	public int getLineNumber()
+	{ return this.lineNumber; }
+
+	/**
+	 * @return destination IP of the last route parsed
+	 */
+	public int getDestinationAddress()
+	{ return this.destinationAddress; }
+
+	/**
+	 * @return gateway IP of the last route parsed
+	 */
+	public int getGatewayAddress()
+	{ return this.gatewayAddress; }
+
+	/**
+	 * @return subnet mask of the last route parsed
+	 */
+	public int getMaskAddress()
+	{ return this.maskAddress; }
+
+	/**
+	 * @return interface name of the last route parsed
+	 */
+	public String getInterface()
+	{ return this.interfaceName; }
+
+	/**
+	 * Parse the next route in the file.
+	 * @return true if a route was parsed, false at the end of the file
+	 * @throws IOException if the file cannot be read, or a line is not a
+	 *         valid route; the message includes the line number
+	 */
+	public boolean next() throws IOException
+	{
+		while (true)
+		{
+			int end = this.findLineEnd();
+			if (end < 0)
+			{ return false; }
+			this.lineNumber++;
+			int start = this.position;
+			this.position = Math.min(end + 1, this.limit);
+			if (this.parseLine(start, end))
+			{ return true; }
+		}
+	}
+
+	/**
+	 * Find the end of the next line, reading more of the file as needed.
+	 * @return index of the newline ending the line, or of the end of the
+	 *         file; -1 if no bytes are left
+	 */
+	private int findLineEnd() throws IOException
+	{
+		int i = this.position;
+		while (true)
+		{
+			for (; i < this.limit; i++)
+			{
+				if ('\n' == this.bytes[i])
+				{ return i; }
+			}
+			if (this.eof)
+			{ return (this.position < this.limit) ? this.limit : -1; }
+
+			// Move the partial line to the front and read more after it
+			int partial = this.limit - this.position;
+			if (partial == this.bytes.length)
+			{
+				throw new IOException("line " + (this.lineNumber + 1)
+						+ ": line too long");
+			}
+			System.arraycopy(this.bytes, this.position, this.bytes, 0,
+					partial);
+			i = partial;
+			this.position = 0;
+			this.limit = partial;
+			this.buffer.clear();
+			this.buffer.position(partial);
+			while (!this.eof && this.buffer.hasRemaining())
+			{
+				if (this.channel.read(this.buffer) < 0)
+				{ this.eof = true; }
+			}
+			this.limit = this.buffer.position();
+		}
+	}
+
+	/**
+	 * Parse the fields of a line.
+	 * @return true if the line holds a route, false if it is blank
+	 */
+	private boolean parseLine(int start, int end) throws IOException
+	{
+		this.cursor = start;
+		this.skipSpace(end);
+		if (this.cursor == end)
+		{ return false; }
+
+		this.destinationAddress = this.parseAddress(end, "destination");
+		this.requireSpace(end);
+		this.gatewayAddress = this.parseAddress(end, "gateway");
+		this.requireSpace(end);
+		this.maskAddress = this.parseAddress(end, "mask");
+		this.requireSpace(end);
+		this.parseInterface(end);
+		this.skipSpace(end);
+		if (this.cursor != end)
+		{ throw this.error("unexpected text after interface"); }
+		return true;
+	}
+
+	/**
+	 * Parse an IP address in dotted decimal format at the cursor.
+	 */
+	private int parseAddress(int end, String field) throws IOException
+	{
+		int address = 0;
+		for (int octet = 0; octet < 4; octet++)
+		{
+			if (octet > 0)
+			{
+				if (this.cursor >= end || this.bytes[this.cursor] != '.')
+				{ throw this.error("invalid " + field + " address"); }
+				this.cursor++;
+			}
+			int value = 0;
+			int digits = 0;
+			while (this.cursor < end && digits < 4)
+			{
+				int digit = this.bytes[this.cursor] - '0';
+				if (digit < 0 || digit > 9)
+				{ break; }
+				value = value * 10 + digit;
+				digits++;
+				this.cursor++;
+			}
+			if (0 == digits || digits > 3 || value > 255)
+			{ throw this.error("invalid " + field + " address"); }
+			address = (address << 8) | value;
+		}
+		return address;
+	}
+
+	/**
+	 * Parse an interface name at the cursor.
+	 */
+	private void parseInterface(int end) throws IOException
+	{
+		int start = this.cursor;
+		while (this.cursor < end && isNameByte(this.bytes[this.cursor]))
+		{ this.cursor++; }
+		if (this.cursor == start)
+		{ throw this.error("invalid interface name"); }
+
+		if (!Arrays.equals(this.bytes, start, this.cursor,
+				this.interfaceBytes, 0, this.interfaceBytes.length))
+		{
+			this.interfaceBytes = Arrays.copyOfRange(this.bytes, start,
+					this.cursor);
+			this.interfaceName = new String(this.interfaceBytes,
+					StandardCharsets.US_ASCII);
+		}
+	}
+
+	private static boolean isNameByte(byte b)
+	{
+		return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z')
+				|| (b >= '0' && b <= '9');
+	}
+
+	private static boolean isSpace(byte b)
+	{ return ' ' == b || '\t' == b || '\r' == b || '\f' == b; }
+
+	private void skipSpace(int end)
+	{
+		while (this.cursor < end && isSpace(this.bytes[this.cursor]))
+		{ this.cursor++; }
+	}
+
+	private void requireSpace(int end) throws IOException
+	{
+		int start = this.cursor;
+		this.skipSpace(end);
+		if (this.cursor == start)
+		{ throw this.error("missing field"); }
+	}
+
+	private IOException error(String message)
+	{ return new IOException("line " + this.lineNumber + ": " + message); }
+}
@@ -1,129 +1,968 @@
 package edu.wisc.cs.sdn.sr;
 
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.util.LinkedList;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
 
 /**
  * Route table for a router.
+ * <p>
+ * Routes are stored column-wise: the destination, gateway, mask, metric,
+ * interface and timestamp of the route in a slot sit at the same index of
+ * parallel primitive arrays. Interfaces are interned to small indexes, which
+ * the router uses to find the {@link Iface} without hashing its name.
+ * <p>
+ * A route may have several equal-cost paths, each with its own gateway and
+ * interface. The first path is kept in the gateway and interface columns;
+ * routes with more than one path also keep an immutable array of all their
+ * paths, which is replaced rather than changed. Each path of such a route
+ * has its own time it was last advertised, so a path expires on its own
+ * when the neighbor behind it stops advertising the route.
+ * <p>
+ * Writers are serialized by a lock and publish an immutable {@link Snapshot}
+ * through a volatile reference after each change, or once at the end of a
+ * batch of changes. Readers, including the forwarding path, only ever read
+ * the latest snapshot and never lock.
+ * <p>
+ * Columns are split into chunks of CHUNK_SIZE slots. A snapshot copies
+ * only the arrays of chunk references, and shares the chunks themselves
+ * with the writer; the writer copies a chunk the first time it changes it
+ * after a publish. Publishing a change therefore costs one reference per
+ * chunk plus the chunks changed since the last publish, rather than a copy
+ * of every column.
  * @author Aaron Gember-Jacobson
  */
 public class RouteTable 
 {
-	/** Entries in the route table */
-	private List<RouteTableEntry> entries; 
+	/**
+	 * Immutable view of the route table at one point in time. Routes are
+	 * identified by their slot, which is only meaningful within the snapshot
+	 * it was obtained from.
+	 */
+	public static class Snapshot
+	{
+		/** Destination IP address of the route in each slot, by chunk */
+		private final int[][] destinations;
+		
+		/** Gateway IP address of the route in each slot, by chunk */
+		private final int[][] gateways;
+		
+		/** Subnet mask of the route in each slot, by chunk */
+		private final int[][] masks;
+		
+		/** Metric of the route in each slot, by chunk */
+		private final int[][] metrics;
+		
+		/** Interface index of the route in each slot, by chunk; -1 if the
+		 *  slot is free */
+		private final int[][] interfaces;
+		
+		/** Time (in seconds since the epoch) the route in each slot was last
+		 *  advertised, as of when the snapshot was taken, by chunk */
+		private final long[][] timestamps;
+		
+		/** Gateway and interface index pairs for each path of the route in
+		 *  each slot, by chunk; null if the route has a single path */
+		private final int[][][] paths;
+		
+		/** Number of slots ever used */
+		private final int slotCount;
+		
+		/** Interface names, by interface index */
+		private final String[] interfaceNames;
+		
+		/** Number of routes in the snapshot */
+		private final int size;
+		
+		/** Prefix trie over the routes, for longest prefix match lookups */
+		private final RouteTrie trie;
+		
+		/** DIR-24-8 forwarding table over the routes; null unless flat 
+		 *  lookups are enabled */
+		private final FlatLookupTable flatTable;
+		
+		/** Generation of the route table this snapshot was taken at */
+		private final int generation;
+		
+		/** Routes as entries; built on first use */
+		private volatile List<RouteTableEntry> entries;
+		
+		private Snapshot(RouteTable table, int slotCount)
+		{
+			// The chunks themselves are shared; the writer copies a chunk
+			// before changing it
+			int chunks = (slotCount + CHUNK_MASK) >>> CHUNK_BITS;
+			this.destinations = Arrays.copyOf(table.destinations, chunks);
+			this.gateways = Arrays.copyOf(table.gateways, chunks);
+			this.masks = Arrays.copyOf(table.masks, chunks);
+			this.metrics = Arrays.copyOf(table.metrics, chunks);
+			this.interfaces = Arrays.copyOf(table.interfaces, chunks);
+			this.timestamps = Arrays.copyOf(table.timestamps, chunks);
+			this.paths = Arrays.copyOf(table.paths, chunks);
+			this.slotCount = slotCount;
+			this.interfaceNames = table.interfaceNames;
+			this.size = table.prefixIndex.size();
+			this.trie = table.trie;
+			this.flatTable = table.flatTable;
+			this.generation = table.generation;
+		}
+		
+		/**
+		 * @return a number that changes whenever entries are added, removed,
+		 *         or updated; never 0
+		 */
+		public int getGeneration()
+		{ return this.generation; }
+		
+		/**
+		 * @return number of routes in the snapshot
+		 */
+		public int size()
+		{ return this.size; }
+		
+		/**
+		 * Find the route whose prefix is the longest match for an IP address.
+		 * @param ip destination IP address
+		 * @return slot of the best matching route; -1 if no route matches
+		 */
+		public int lookup(int ip)
+		{
+			if (this.flatTable != null)
+			{
+				// The flat table is patched in place, so it may already
+				// reflect a newer generation than this snapshot
+				int route = this.flatTable.lookup(ip, this.generation);
+				if (route != FlatLookupTable.STALE)
+				{ return route; }
+			}
+			return this.trie.lookup(ip);
+		}
+		
+		/**
+		 * Find the routes whose prefixes are the longest matches for a 
+		 * batch of IP addresses.
+		 * @param ips destination IP addresses
+		 * @param routes filled with the slot of the best matching route for
+		 *        each address; -1 if no route matches
+		 * @param count number of addresses
+		 */
+		public void lookup(int[] ips, int[] routes, int count)
+		{
+			if (this.flatTable != null 
+					&& this.flatTable.lookup(ips, routes, count, 
+							this.generation))
+			{ return; }
+			this.trie.lookup(ips, routes, count);
+		}
+		
+		/**
+		 * @param route slot of a route
+		 * @return destination IP address of the route
+		 */
+		public int getDestinationAddress(int route)
+		{ return this.destinations[route >>> CHUNK_BITS][route & CHUNK_MASK]; }
+		
+		/**
+		 * @param route slot of a route
+		 * @return gateway IP address of the route
+		 */
+		public int getGatewayAddress(int route)
+		{ return this.gateways[route >>> CHUNK_BITS][route & CHUNK_MASK]; }
+		
+		/**
+		 * @param route slot of a route
+		 * @return subnet mask of the route
+		 */
+		public int getMaskAddress(int route)
+		{ return this.masks[route >>> CHUNK_BITS][route & CHUNK_MASK]; }
+		
+		/**
+		 * @param route slot of a route
+		 * @return metric of the route
+		 */
+		public int getMetric(int route)
+		{ return this.metrics[route >>> CHUNK_BITS][route & CHUNK_MASK]; }
+		
+		/**
+		 * @param route slot of a route
+		 * @return index of the router interface out which packets should be
+		 *         sent to reach the destination or gateway
+		 */
+		public int getInterfaceIndex(int route)
+		{ return this.interfaces[route >>> CHUNK_BITS][route & CHUNK_MASK]; }
+		
+		/**
+		 * @param route slot of a route
+		 * @return name of the router interface out which packets should be
+		 *         sent to reach the destination or gateway
+		 */
+		public String getInterface(int route)
+		{ return this.interfaceNames[this.getInterfaceIndex(route)]; }
+		
+		/**
+		 * @param route slot of a route
+		 * @return number of equal-cost paths the route has
+		 */
+		public int getPathCount(int route)
+		{
+			int[] routePaths = 
+					this.paths[route >>> CHUNK_BITS][route & CHUNK_MASK];
+			return (null == routePaths) ? 1 : routePaths.length / 2;
+		}
+		
+		/**
+		 * Pick one of a route's paths for a flow. Packets of the same flow 
+		 * always take the same path, as long as the route does not change.
+		 * @param route slot of a route
+		 * @param flowHash hash of the fields identifying the flow
+		 * @return index of the path
+		 */
+		public int selectPath(int route, int flowHash)
+		{
+			int[] routePaths = 
+					this.paths[route >>> CHUNK_BITS][route & CHUNK_MASK];
+			if (null == routePaths)
+			{ return 0; }
+			return (int)((flowHash & 0xFFFFFFFFL) % (routePaths.length / 2));
+		}
+		
+		/**
+		 * @param route slot of a route
+		 * @param path index of one of the route's paths
+		 * @return gateway IP address of the path
+		 */
+		public int getGatewayAddress(int route, int path)
+		{
+			int[] routePaths = 
+					this.paths[route >>> CHUNK_BITS][route & CHUNK_MASK];
+			return (null == routePaths) ? this.getGatewayAddress(route) 
+					: routePaths[2 * path];
+		}
+		
+		/**
+		 * @param route slot of a route
+		 * @param path index of one of the route's paths
+		 * @return index of the router interface out which packets taking 
+		 *         the path should be sent
+		 */
+		public int getInterfaceIndex(int route, int path)
+		{
+			int[] routePaths = 
+					this.paths[route >>> CHUNK_BITS][route & CHUNK_MASK];
+			return (null == routePaths) ? this.getInterfaceIndex(route) 
+					: routePaths[2 * path + 1];
+		}
+		
+		/**
+		 * @param route slot of a route
+		 * @return an entry holding the route's first path; null if the slot
+		 *         is free
+		 */
+		public RouteTableEntry getEntry(int route)
+		{
+			if (route < 0 || route >= this.slotCount 
+					|| this.getInterfaceIndex(route) < 0)
+			{ return null; }
+			RouteTableEntry entry = new RouteTableEntry(
+					this.getDestinationAddress(route), 
+					this.getGatewayAddress(route), this.getMaskAddress(route),
+					this.getInterface(route), this.getMetric(route));
+			entry.setTimestamp(
+					this.timestamps[route >>> CHUNK_BITS][route & CHUNK_MASK]);
+			return entry;
+		}
+		
+		/**
+		 * @return entries in the route table; the list cannot be modified,
+		 *         and changing an entry does not change the route table
+		 */
+		public List<RouteTableEntry> getEntries()
+		{
+			List<RouteTableEntry> result = this.entries;
+			if (null == result)
+			{
+				List<RouteTableEntry> list = 
+						new ArrayList<RouteTableEntry>(this.size);
+				for (int i = 0; i < this.slotCount; i++)
+				{
+					if (this.getInterfaceIndex(i) >= 0)
+					{ list.add(this.getEntry(i)); }
+				}
+				result = Collections.unmodifiableList(list);
+				this.entries = result;
+			}
+			return result;
+		}
+	}
+	
+	/** Latest published view of the route table */
+	private volatile Snapshot snapshot;
+	
+	/** Serializes writers; readers never take it */
+	private ReentrantLock writeLock;
+	
+	/** Number of nested batches the writer has open */
+	private int batchDepth;
+	
+	/** Routes are stored in chunks of this many slots */
+	private static final int CHUNK_BITS = 8;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+	
+	/** Columns of the writer's routes, by chunk then slot within the chunk;
+	 *  only accessed by writers. Chunks not copied since the last publish
+	 *  are shared with the snapshot, and must be copied before changing. */
+	private int[][] destinations;
+	private int[][] gateways;
+	private int[][] masks;
+	private int[][] metrics;
+	private long[][] timestamps;
+	
+	/** Interface index of the route in each slot, by chunk; -1 if the slot
+	 *  is free */
+	private int[][] interfaces;
+	
+	/** Gateway and interface index pairs for each path of the route in each
+	 *  slot, by chunk; null if the route has a single path. Arrays are never
+	 *  changed once stored. */
+	private int[][][] paths;
+	
+	/** Number of chunks allocated */
+	private int chunkCount;
+	
+	/** Publish count when each chunk was last copied or allocated; a chunk
+	 *  with an older count is shared with the published snapshot */
+	private int[] chunkCopied;
+	
+	/** Number of times the routes have been published */
+	private int publishCount;
+	
+	/** Time (in seconds since the epoch) each path of the route in each 
+	 *  slot was last advertised, in the order of the route's paths; null if
+	 *  the route has a single path, whose time is in the timestamp column.
+	 *  Never published, so it is not split into chunks. */
+	private long[][] pathTimestamps;
+	
+	/** Number of slots ever used */
+	private int slotCount;
+	
+	/** Free slots below slotCount */
+	private int[] freeSlots;
+	private int freeSlotCount;
+	
+	/** Maps each prefix to the slot of its route */
+	private PrefixIndex prefixIndex;
+	
+	/** Interface names, by interface index; names are only ever appended */
+	private String[] interfaceNames;
+	
+	/** Maps interface names to their index */
+	private Map<String,Integer> interfaceIndexes;
+	
+	/** Prefix trie over the routes; only accessed by writers */
+	private RouteTrie trie;
+	
+	/** DIR-24-8 forwarding table over the routes; null unless flat lookups
+	 *  are enabled. It is patched in place and records the generation it
+	 *  reflects, so readers holding an older snapshot fall back to the
+	 *  snapshot's trie. */
+	private FlatLookupTable flatTable;
+	
+	/** Incremented whenever entries are added, removed, or updated; never 0 */
+	private int generation;
+	
+	/** True if the routes were loaded from a static route table, rather
+	 *  than learned by RIP */
+	private volatile boolean staticRouting;
 	
 	/**
 	 * Initialize an empty route table.
 	 */
 	public RouteTable()
-	{ this.entries = new LinkedList<RouteTableEntry>(); }
+	{
+		this.writeLock = new ReentrantLock();
+		this.batchDepth = 0;
+		this.publishCount = 0;
+		this.resetColumns();
+		this.slotCount = 0;
+		this.freeSlots = new int[16];
+		this.freeSlotCount = 0;
+		this.prefixIndex = new PrefixIndex();
+		this.interfaceNames = new String[8];
+		this.interfaceIndexes = new HashMap<String,Integer>();
+		this.trie = RouteTrie.EMPTY;
+		this.generation = 1;
+		this.publish();
+	}
+	
+	/**
+	 * @return latest view of the route table
+	 */
+	public Snapshot getSnapshot()
+	{ return this.snapshot; }
 	
 	/**
-	 * @return entries in the route table
+	 * @return a number that changes whenever entries are added, removed, or
+	 *         updated; never 0
+	 */
+	public int getGeneration()
+	{ return this.snapshot.getGeneration(); }
+	
+	/**
+	 * @return entries in the route table; the list cannot be modified and
+	 *         does not reflect later changes
 	 */
 	public List<RouteTableEntry> getEntries()
-	{ return this.entries; }
+	{ return this.snapshot.getEntries(); }
+	
+	/**
+	 * Get the index for an interface name, assigning the next free index if
+	 * the name has none yet. Indexes start at 0 and are never reused.
+	 * @param ifaceName name of a router interface
+	 * @return index of the interface
+	 */
+	public int getInterfaceIndex(String ifaceName)
+	{
+		this.writeLock.lock();
+		try
+		{
+			Integer index = this.interfaceIndexes.get(ifaceName);
+			if (index != null)
+			{ return index; }
+			int count = this.interfaceIndexes.size();
+			if (count >= this.interfaceNames.length)
+			{
+				this.interfaceNames = Arrays.copyOf(this.interfaceNames,
+						count * 2);
+			}
+			this.interfaceNames[count] = ifaceName;
+			this.interfaceIndexes.put(ifaceName, count);
+			return count;
+		}
+		finally
+		{ this.writeLock.unlock(); }
+	}
+	
+	/**
+	 * Start a batch of changes. Changes made by the calling thread are not
+	 * published to readers until the matching call to endBatch. Batches may
+	 * be nested, and other writers are blocked until the batch ends.
+	 */
+	public void beginBatch()
+	{
+		this.writeLock.lock();
+		this.batchDepth++;
+	}
+	
+	/**
+	 * End a batch of changes, publishing them if this ends the outermost
+	 * batch.
+	 */
+	public void endBatch()
+	{
+		try
+		{
+			this.batchDepth--;
+			if (0 == this.batchDepth 
+					&& this.generation != this.snapshot.getGeneration())
+			{ this.publish(); }
+		}
+		finally
+		{ this.writeLock.unlock(); }
+	}
+	
+	/**
+	 * Start a change to the routes; must be called while holding the write
+	 * lock, before the flat table is patched.
+	 * @return generation of the route table after the change
+	 */
+	private int nextGeneration()
+	{
+		int next = this.generation + 1;
+		this.generation = (0 == next) ? 1 : next;
+		return this.generation;
+	}
+	
+	/**
+	 * Finish a change to the routes, publishing it unless a batch is open;
+	 * must be called while holding the write lock.
+	 */
+	private void changed()
+	{
+		if (0 == this.batchDepth)
+		{ this.publish(); }
+	}
 	
 	/**
-	 * Populate the route table from a file.
+	 * Publish the writer's view of the routes to readers.
+	 */
+	private void publish()
+	{
+		this.publishCount++;
+		this.snapshot = new Snapshot(this, this.slotCount);
+	}
+	
+	/**
+	 * Enable or disable the DIR-24-8 forwarding table. The table uses about
+	 * 64MB, but answers lookups with one or two array reads.
+	 * @param enable true to use the flat table for lookups, otherwise false
+	 */
+	public void setFlatLookup(boolean enable)
+	{
+		this.writeLock.lock();
+		try
+		{
+			if (enable == (this.flatTable != null))
+			{ return; }
+			if (enable)
+			{
+				this.flatTable = new FlatLookupTable(this.generation);
+				for (int i = 0; i < this.slotCount; i++)
+				{
+					int chunk = i >>> CHUNK_BITS;
+					int index = i & CHUNK_MASK;
+					if (this.interfaces[chunk][index] >= 0)
+					{
+						this.flatTable.add(i, this.destinations[chunk][index],
+								RouteTrie.maskToLength(
+										this.masks[chunk][index]),
+								this.generation);
+					}
+				}
+			}
+			else
+			{ this.flatTable = null; }
+			this.publish();
+		}
+		finally
+		{ this.writeLock.unlock(); }
+	}
+	
+	/**
+	 * @return true if the routes were loaded from a static route table,
+	 *         rather than learned by RIP
+	 */
+	public boolean isStaticRouting()
+	{ return this.staticRouting; }
+	
+	/**
+	 * @return true if lookups use the DIR-24-8 forwarding table
+	 */
+	public boolean isFlatLookup()
+	{ return (this.snapshot.flatTable != null); }
+	
+	/**
+	 * Populate the route table from a file. Readers see the new table only
+	 * once the whole file has been read.
 	 * @param filename name of the file containing the static route table
 	 * @return true if route table was successfully loaded, otherwise false
 	 */
 	public boolean load(String filename)
+	{
+		this.beginBatch();
+		try
+		{ return this.loadFile(filename); }
+		finally
+		{ this.endBatch(); }
+	}
+	
+	private boolean loadFile(String filename)
 	{
 		// Open the file
-		BufferedReader reader;
+		FileChannel channel;
 		try 
-		{
-			FileReader fileReader = new FileReader(filename);
-			reader = new BufferedReader(fileReader);
-		}
-		catch (FileNotFoundException e) 
+		{ channel = FileChannel.open(Paths.get(filename)); }
+		catch (IOException | InvalidPathException e) 
 		{
 			System.err.println(e.toString());
 			return false;
 		}
 		
-		boolean clearRoutingTable = true;
-		while (true)
+		// Read every route before touching the route table, so a bad line
+		// leaves the table as it was; the fields of each line are kept
+		// together, so reading them back out of order stays cheap
+		int count = 0;
+		int[] lines = new int[LOAD_FIELDS * 1024];
+		String iface = null;
+		int ifaceIndex = -1;
+		RouteFileParser parser = new RouteFileParser(channel);
+		try
 		{
-			// Read a route entry from the file
-			String line = null;
-			try 
-			{ line = reader.readLine(); }
-			catch (IOException e) 
+			while (parser.next())
 			{
-				System.err.println(e.toString());
-				try { reader.close(); } catch (IOException f) {};
-				return false;
+				int base = count * LOAD_FIELDS;
+				if (base == lines.length)
+				{ lines = Arrays.copyOf(lines, lines.length * 2); }
+				
+				// Consecutive lines share the interface name object
+				if (parser.getInterface() != iface)
+				{
+					iface = parser.getInterface();
+					ifaceIndex = this.getInterfaceIndex(iface);
+				}
+				lines[base] = parser.getDestinationAddress();
+				lines[base + 1] = parser.getGatewayAddress();
+				lines[base + 2] = parser.getMaskAddress();
+				lines[base + 3] = ifaceIndex;
+				lines[base + 4] = 0;
+				count++;
 			}
-			
-			// Stop if we have reached the end of the file
-			if (null == line)
-			{ break; }
-			
-			// Parse fields for route entry
-			String ipPattern = "(\\d+\\.\\d+\\.\\d+\\.\\d+)";
-			String ifacePattern = "([a-zA-Z0-9]+)";
-			Pattern pattern = Pattern.compile(String.format(
-                        "%s\\s+%s\\s+%s\\s+%s", 
-                        ipPattern, ipPattern, ipPattern, ifacePattern));
-			Matcher matcher = pattern.matcher(line);
-			if (!matcher.matches() || matcher.groupCount() != 4)
+		}
+		catch (IOException e)
+		{
+			System.err.println("Error loading routing table " + filename
+					+ ", " + e.getMessage());
+			return false;
+		}
+		finally
+		{ try { channel.close(); } catch (IOException f) {}; }
+		
+		// If we successfully read any entries from the file, then flush the
+		// current route table
+		if (0 == count)
+		{ return true; }
+		System.out.println("Loading routing table from server, clear local routing table");
+		this.replaceRoutes(lines, count);
+		this.staticRouting = true;
+		return true;
+	}
+	
+	/**
+	 * Replace all routes; must be called while holding the write lock.
+	 * @param routes destination, gateway, mask, interface index and metric
+	 *        of each route, LOAD_FIELDS values per route; for duplicate
+	 *        prefixes the last route wins
+	 * @param count number of routes
+	 */
+	private void replaceRoutes(int[] routes, int count)
+	{
+		this.clear();
+		
+		if (count > LOAD_ORDER_LINE_MASK)
+		{
+			for (int base = 0; base < count * LOAD_FIELDS; 
+					base += LOAD_FIELDS)
 			{
-				System.err.println("Invalid entry in routing table file");
-				try { reader.close(); } catch (IOException f) {};
-				return false;
+				this.putRoute(routes[base], routes[base + 1], 
+						routes[base + 2], routes[base + 3], routes[base + 4]);
 			}
-
-			int dstIp = Util.dottedDecimalToInt(matcher.group(1));
-			if (0 == dstIp)
+			return;
+		}
+		
+		// Insert in prefix order, so consecutive inserts walk the same part
+		// of the trie; for duplicate prefixes the last route still wins
+		long[] order = new long[count];
+		for (int i = 0; i < count; i++)
+		{
+			int length = RouteTrie.maskToLength(routes[i * LOAD_FIELDS + 2]);
+			int prefix = routes[i * LOAD_FIELDS] 
+					& RouteTrie.lengthToMask(length);
+			order[i] = ((long)prefix << 32) 
+					| ((long)length << LOAD_ORDER_LINE_BITS) | i;
+		}
+		Arrays.sort(order);
+		
+		// The table is empty, so duplicate prefixes are adjacent and there
+		// is no need to look prefixes up before adding them
+		int generation = this.nextGeneration();
+		RouteTrie.Builder trieBuilder = new RouteTrie.Builder();
+		while ((this.chunkCount << CHUNK_BITS) < count)
+		{ this.growSlots(); }
+		this.prefixIndex.ensureCapacity(count);
+		long previous = -1;
+		for (int i = 0; i < count; i++)
+		{
+			int base = (int)(order[i] & LOAD_ORDER_LINE_MASK) * LOAD_FIELDS;
+			int dstIp = routes[base];
+			int maskIp = routes[base + 2];
+			long prefix = order[i] >>> LOAD_ORDER_LINE_BITS;
+			if (prefix == previous)
 			{
-				System.err.println("Error loading routing table, cannot convert " + matcher.group(1) + " to valid IP");
-				try { reader.close(); } catch (IOException f) {};
-				return false;
+				this.store(this.slotCount - 1, dstIp, routes[base + 1], 
+						maskIp, routes[base + 3], routes[base + 4]);
+				continue;
 			}
-			
-			int gwIp = Util.dottedDecimalToInt(matcher.group(2));
-			
-			int maskIp = Util.dottedDecimalToInt(matcher.group(3));
-			if (0 == maskIp)
+			previous = prefix;
+			int slot = this.slotCount++;
+			int length = RouteTrie.maskToLength(maskIp);
+			this.store(slot, dstIp, routes[base + 1], maskIp, 
+					routes[base + 3], routes[base + 4]);
+			this.prefixIndex.put(PrefixIndex.key(dstIp, length), slot);
+			trieBuilder.add(dstIp, length, slot);
+			if (this.flatTable != null)
+			{ this.flatTable.add(slot, dstIp, length, generation); }
+		}
+		this.trie = trieBuilder.build();
+		this.changed();
+	}
+	
+	/** Number of fields kept for each route while routes are loaded */
+	private static final int LOAD_FIELDS = 5;
+	
+	/** Bits of a load order key holding the route's position in the input;
+	 *  the prefix length sits above them, and the prefix in the upper half */
+	private static final int LOAD_ORDER_LINE_BITS = 26;
+	private static final long LOAD_ORDER_LINE_MASK = 
+			(1L << LOAD_ORDER_LINE_BITS) - 1;
+	
+	/** Identifies a route snapshot file ("RTSN") */
+	private static final int SNAPSHOT_MAGIC = 0x5254534E;
+	
+	/** Version of the route snapshot format */
+	private static final int SNAPSHOT_VERSION = 1;
+	
+	/** Snapshot flag set when the routes came from a static route table */
+	private static final int SNAPSHOT_STATIC = 0x1;
+	
+	/** Size of the snapshot header: magic, version, flags, interface count,
+	 *  route count, and a CRC32 of everything after the header */
+	private static final int SNAPSHOT_HEADER_SIZE = 24;
+	
+	/** Size of a snapshot route record: destination, gateway, mask, 
+	 *  metric, and interface index */
+	private static final int SNAPSHOT_RECORD_SIZE = 20;
+	
+	/**
+	 * Save the routes to a binary snapshot file. The file holds a header,
+	 * the interface names, and a fixed-width record per route, and is
+	 * written under a temporary name then moved into place.
+	 * @param filename name of the snapshot file
+	 * @return true if the snapshot was saved, otherwise false
+	 */
+	public boolean save(String filename)
+	{
+		Snapshot routes;
+		String[] interfaceNames;
+		int interfaceCount;
+		boolean isStatic;
+		this.writeLock.lock();
+		try
+		{
+			routes = this.snapshot;
+			interfaceNames = this.interfaceNames;
+			interfaceCount = this.interfaceIndexes.size();
+			isStatic = this.staticRouting;
+		}
+		finally
+		{ this.writeLock.unlock(); }
+		
+		byte[][] names = new byte[interfaceCount][];
+		long size = SNAPSHOT_HEADER_SIZE 
+				+ (long)routes.size() * SNAPSHOT_RECORD_SIZE;
+		for (int i = 0; i < interfaceCount; i++)
+		{
+			names[i] = interfaceNames[i].getBytes(
+					StandardCharsets.UTF_8);
+			size += 2 + names[i].length;
+		}
+		
+		Path path;
+		Path tempPath;
+		try
+		{
+			path = Paths.get(filename);
+			tempPath = Paths.get(filename + ".tmp");
+		}
+		catch (InvalidPathException e)
+		{
+			System.err.println(e.toString());
+			return false;
+		}
+		
+		try (FileChannel channel = FileChannel.open(tempPath, 
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ, StandardOpenOption.WRITE))
+		{
+			MappedByteBuffer buffer = channel.map(
+					FileChannel.MapMode.READ_WRITE, 0, size);
+			buffer.putInt(SNAPSHOT_MAGIC);
+			buffer.putInt(SNAPSHOT_VERSION);
+			buffer.putInt(isStatic ? SNAPSHOT_STATIC : 0);
+			buffer.putInt(interfaceCount);
+			buffer.putInt(routes.size());
+			buffer.putInt(0);
+			for (byte[] name : names)
 			{
-				System.err.println("Error loading routing table, cannot convert " + matcher.group(3) + " to valid IP");
-				try { reader.close(); } catch (IOException f) {};
-				return false;
+				buffer.putShort((short)name.length);
+				buffer.put(name);
 			}
-			
-			String iface = matcher.group(4).trim();
-			
-			
-			// If we successfully read the first entry from the file, then
-			// flush the current route table
-			if (clearRoutingTable)
+			for (int i = 0; i < routes.slotCount; i++)
 			{
-				System.out.println("Loading routing table from server, clear local routing table");
-				entries.clear();
-				clearRoutingTable = false;
+				if (routes.getInterfaceIndex(i) < 0)
+				{ continue; }
+				buffer.putInt(routes.getDestinationAddress(i));
+				buffer.putInt(routes.getGatewayAddress(i));
+				buffer.putInt(routes.getMaskAddress(i));
+				buffer.putInt(routes.getMetric(i));
+				buffer.putInt(routes.getInterfaceIndex(i));
 			}
 			
-			// Add an entry to the route table
-			this.addEntry(dstIp, gwIp, maskIp, iface);
+			CRC32 crc = new CRC32();
+			buffer.position(SNAPSHOT_HEADER_SIZE);
+			crc.update(buffer);
+			buffer.putInt(SNAPSHOT_HEADER_SIZE - 4, (int)crc.getValue());
+			buffer.force();
+		}
+		catch (IOException e)
+		{
+			System.err.println("Error saving route snapshot " + filename
+					+ ", " + e.toString());
+			return false;
+		}
+		
+		try
+		{ 
+			Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE); 
+		}
+		catch (IOException e)
+		{
+			System.err.println("Error saving route snapshot " + filename
+					+ ", " + e.toString());
+			return false;
 		}
+		return true;
+	}
 	
-		// Close the file
-		try { reader.close(); } catch (IOException f) {};
+	/**
+	 * Replace the routes with those in a binary snapshot file written by
+	 * save. The file is mapped into memory and its records are copied
+	 * straight into the route table. Readers see the new table only once
+	 * the whole file has been read.
+	 * @param filename name of the snapshot file
+	 * @return true if the snapshot was successfully loaded, otherwise false
+	 */
+	public boolean loadSnapshot(String filename)
+	{
+		this.beginBatch();
+		try
+		{ return this.loadSnapshotFile(filename); }
+		finally
+		{ this.endBatch(); }
+	}
+	
+	private boolean loadSnapshotFile(String filename)
+	{
+		ByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(Paths.get(filename)))
+		{
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, 
+					channel.size());
+		}
+		catch (IOException | InvalidPathException e) 
+		{
+			System.err.println(e.toString());
+			return false;
+		}
+		
+		// Check the header
+		String error = null;
+		if (buffer.remaining() < SNAPSHOT_HEADER_SIZE
+				|| buffer.getInt(0) != SNAPSHOT_MAGIC)
+		{ error = "not a route snapshot"; }
+		else if (buffer.getInt(4) != SNAPSHOT_VERSION)
+		{ error = "unsupported version " + buffer.getInt(4); }
+		else
+		{
+			CRC32 crc = new CRC32();
+			buffer.position(SNAPSHOT_HEADER_SIZE);
+			crc.update(buffer);
+			if ((int)crc.getValue() != buffer.getInt(SNAPSHOT_HEADER_SIZE - 4))
+			{ error = "checksum mismatch"; }
+		}
+		if (error != null)
+		{
+			System.err.println("Error loading route snapshot " + filename
+					+ ", " + error);
+			return false;
+		}
+		int flags = buffer.getInt(8);
+		int interfaceCount = buffer.getInt(12);
+		int count = buffer.getInt(16);
+		
+		// Map the interface indexes in the file to this table's indexes
+		buffer.position(SNAPSHOT_HEADER_SIZE);
+		int[] ifaceIndexes = new int[Math.max(interfaceCount, 0)];
+		try
+		{
+			for (int i = 0; i < interfaceCount; i++)
+			{
+				byte[] name = new byte[buffer.getShort() & 0xFFFF];
+				buffer.get(name);
+				ifaceIndexes[i] = this.getInterfaceIndex(
+						new String(name, StandardCharsets.UTF_8));
+			}
+		}
+		catch (BufferUnderflowException e)
+		{ count = -1; }
+		if (count < 0 || (long)count * SNAPSHOT_RECORD_SIZE 
+				!= buffer.remaining())
+		{
+			System.err.println("Error loading route snapshot " + filename
+					+ ", truncated file");
+			return false;
+		}
+		
+		// Records have the same layout as the load arrays, except that the
+		// metric comes before the interface
+		int[] routes = new int[count * LOAD_FIELDS];
+		buffer.asIntBuffer().get(routes);
+		for (int base = 0; base < routes.length; base += LOAD_FIELDS)
+		{
+			int metric = routes[base + 3];
+			int iface = routes[base + 4];
+			if (iface < 0 || iface >= interfaceCount)
+			{
+				System.err.println("Error loading route snapshot " + filename
+						+ ", bad interface index in route " 
+						+ (base / LOAD_FIELDS));
+				return false;
+			}
+			routes[base + 3] = ifaceIndexes[iface];
+			routes[base + 4] = metric;
+		}
+		
+		this.replaceRoutes(routes, count);
+		this.staticRouting = ((flags & SNAPSHOT_STATIC) != 0);
 		return true;
 	}
 	
 	/**
-	 * Add an entry to the route table.
+	 * Remove all entries; must be called while holding the write lock.
+	 */
+	private void clear()
+	{
+		int generation = this.nextGeneration();
+		this.resetColumns();
+		this.slotCount = 0;
+		this.freeSlotCount = 0;
+		this.prefixIndex.clear();
+		this.trie = RouteTrie.EMPTY;
+		if (this.flatTable != null)
+		{ this.flatTable.clear(generation); }
+		this.changed();
+	}
+	
+	/**
+	 * Add an entry to the route table. An existing entry for the same prefix
+	 * is replaced.
 	 * @param dstIp destination IP
 	 * @param gwIp gateway IP
 	 * @param maskIp subnet mask
@@ -131,23 +970,163 @@ public class RouteTable
 	 *        destination or gateway
 	 */
 	public void addEntry(int dstIp, int gwIp, int maskIp, String iface)
+	{ this.addEntry(dstIp, gwIp, maskIp, iface, 0); }
+
+	public void addEntry(int dstIp, int gwIp, int maskIp, String iface, int metric)
+	{
+        this.writeLock.lock();
+        try
+        { this.putRoute(dstIp, gwIp, maskIp, this.getInterfaceIndex(iface), metric); }
+        finally
+        { this.writeLock.unlock(); }
+	}
+	
+	/**
+	 * Add a route, replacing any route for the same prefix; must be called
+	 * while holding the write lock.
+	 */
+	private void putRoute(int dstIp, int gwIp, int maskIp, int ifaceIndex,
+        int metric)
 	{
-		RouteTableEntry entry = new RouteTableEntry(dstIp, gwIp, maskIp, iface);
-        synchronized(this.entries)
-        { 
-            this.entries.add(entry);
+        int length = RouteTrie.maskToLength(maskIp);
+        long key = PrefixIndex.key(dstIp, length);
+        int slot = this.prefixIndex.get(key);
+        if (slot >= 0)
+        {
+            this.setRoute(slot, dstIp, gwIp, maskIp, ifaceIndex, metric);
+            return;
+        }
+        
+        int generation = this.nextGeneration();
+        if (this.freeSlotCount > 0)
+        { slot = this.freeSlots[--this.freeSlotCount]; }
+        else
+        {
+            slot = this.slotCount++;
+            if (slot >= (this.chunkCount << CHUNK_BITS))
+            { this.growSlots(); }
         }
+        this.store(slot, dstIp, gwIp, maskIp, ifaceIndex, metric);
+        this.prefixIndex.put(key, slot);
+        this.trie = this.trie.insert(dstIp, length, slot);
+        if (this.flatTable != null)
+        { this.flatTable.add(slot, dstIp, length, generation); }
+        this.changed();
 	}
-
-	public void addEntry(int dstIp, int gwIp, int maskIp, String iface, int metric)
+	
+	/**
+	 * Drop every chunk and start over with a single empty one; must be
+	 * called while holding the write lock.
+	 */
+	private void resetColumns()
+	{
+        this.destinations = new int[1][];
+        this.gateways = new int[1][];
+        this.masks = new int[1][];
+        this.metrics = new int[1][];
+        this.timestamps = new long[1][];
+        this.interfaces = new int[1][];
+        this.paths = new int[1][][];
+        this.chunkCopied = new int[1];
+        this.chunkCount = 0;
+        this.pathTimestamps = new long[CHUNK_SIZE][];
+        this.growSlots();
+	}
+	
+	/**
+	 * Add a chunk to the route columns; must be called while holding the
+	 * write lock. Existing chunks are not copied.
+	 */
+	private void growSlots()
 	{
-		RouteTableEntry entry = new RouteTableEntry(dstIp, gwIp, maskIp, iface, metric);
-        synchronized(this.entries)
-        { 
-            this.entries.add(entry);
+        int chunk = this.chunkCount;
+        if (chunk == this.interfaces.length)
+        {
+            int capacity = chunk * 2;
+            this.destinations = Arrays.copyOf(this.destinations, capacity);
+            this.gateways = Arrays.copyOf(this.gateways, capacity);
+            this.masks = Arrays.copyOf(this.masks, capacity);
+            this.metrics = Arrays.copyOf(this.metrics, capacity);
+            this.timestamps = Arrays.copyOf(this.timestamps, capacity);
+            this.interfaces = Arrays.copyOf(this.interfaces, capacity);
+            this.paths = Arrays.copyOf(this.paths, capacity);
+            this.chunkCopied = Arrays.copyOf(this.chunkCopied, capacity);
+        }
+        this.destinations[chunk] = new int[CHUNK_SIZE];
+        this.gateways[chunk] = new int[CHUNK_SIZE];
+        this.masks[chunk] = new int[CHUNK_SIZE];
+        this.metrics[chunk] = new int[CHUNK_SIZE];
+        this.timestamps[chunk] = new long[CHUNK_SIZE];
+        this.interfaces[chunk] = new int[CHUNK_SIZE];
+        this.paths[chunk] = new int[CHUNK_SIZE][];
+        this.chunkCopied[chunk] = this.publishCount;
+        this.chunkCount++;
+        
+        int capacity = this.chunkCount << CHUNK_BITS;
+        if (capacity > this.pathTimestamps.length)
+        {
+            this.pathTimestamps = Arrays.copyOf(this.pathTimestamps, 
+                    Math.max(capacity, this.pathTimestamps.length * 2));
         }
 	}
 	
+	/**
+	 * Make the chunk holding a slot safe to change, copying it if the
+	 * published snapshot shares it; must be called while holding the write
+	 * lock. A chunk is copied at most once between publishes.
+	 * @return index of the chunk
+	 */
+	private int unshare(int slot)
+	{
+        int chunk = slot >>> CHUNK_BITS;
+        if (this.chunkCopied[chunk] != this.publishCount)
+        {
+            this.destinations[chunk] = this.destinations[chunk].clone();
+            this.gateways[chunk] = this.gateways[chunk].clone();
+            this.masks[chunk] = this.masks[chunk].clone();
+            this.metrics[chunk] = this.metrics[chunk].clone();
+            this.timestamps[chunk] = this.timestamps[chunk].clone();
+            this.interfaces[chunk] = this.interfaces[chunk].clone();
+            this.paths[chunk] = this.paths[chunk].clone();
+            this.chunkCopied[chunk] = this.publishCount;
+        }
+        return chunk;
+	}
+	
+	/**
+	 * Write a single-path route into a slot and mark it as just advertised;
+	 * must be called while holding the write lock.
+	 */
+	private void store(int slot, int dstIp, int gwIp, int maskIp, 
+            int ifaceIndex, int metric)
+	{
+        int chunk = this.unshare(slot);
+        int index = slot & CHUNK_MASK;
+        this.destinations[chunk][index] = dstIp;
+        this.gateways[chunk][index] = gwIp;
+        this.masks[chunk][index] = maskIp;
+        this.metrics[chunk][index] = metric;
+        this.interfaces[chunk][index] = ifaceIndex;
+        this.paths[chunk][index] = null;
+        this.pathTimestamps[slot] = null;
+        this.timestamps[chunk][index] = System.currentTimeMillis()/1000L;
+	}
+	
+	/**
+	 * Replace the route in an occupied slot with a route for the same
+	 * prefix; must be called while holding the write lock. The prefix keeps
+	 * its slot, so neither the trie nor the flat table change.
+	 */
+	private void setRoute(int slot, int dstIp, int gwIp, int maskIp, 
+            int ifaceIndex, int metric)
+	{
+        int generation = this.nextGeneration();
+        this.store(slot, dstIp, gwIp, maskIp, ifaceIndex, metric);
+        if (this.flatTable != null)
+        { this.flatTable.setGeneration(generation); }
+        this.changed();
+	}
+	
 	/**
 	 * Remove an entry from the route table.
 	 * @param dstIP destination IP of the entry to remove
@@ -156,16 +1135,134 @@ public class RouteTable
 	 */
 	public boolean removeEntry(int dstIp, int maskIp)
 	{ 
-        synchronized(this.entries)
+        this.writeLock.lock();
+        try
         {
-            RouteTableEntry entry = this.findEntry(dstIp, maskIp);
-            if (null == entry)
+            int length = RouteTrie.maskToLength(maskIp);
+            int slot = this.prefixIndex.remove(PrefixIndex.key(dstIp, length));
+            if (slot < 0)
             { return false; }
-            this.entries.remove(entry);
+            int generation = this.nextGeneration();
+            int chunk = this.unshare(slot);
+            this.interfaces[chunk][slot & CHUNK_MASK] = -1;
+            this.paths[chunk][slot & CHUNK_MASK] = null;
+            this.pathTimestamps[slot] = null;
+            if (this.freeSlotCount >= this.freeSlots.length)
+            {
+                this.freeSlots = Arrays.copyOf(this.freeSlots, 
+                        this.freeSlots.length * 2);
+            }
+            this.freeSlots[this.freeSlotCount++] = slot;
+            
+            this.trie = this.trie.remove(dstIp, length);
+            if (this.flatTable != null)
+            {
+                int replacement = (0 == length) ? -1
+                        : this.trie.lookup(dstIp, length - 1);
+                this.flatTable.remove(slot, dstIp, length, replacement,
+                        generation);
+            }
+            this.changed();
         }
+        finally
+        { this.writeLock.unlock(); }
         return true;
     }
 	
+	/**
+	 * Remove paths learned through a gateway that have not been advertised
+	 * since a given time, and entries left without paths. Readers see all 
+	 * removals at once.
+	 * @param expireTime time (in seconds since the epoch); paths last
+	 *        advertised at or before this time are removed
+	 * @return number of entries removed
+	 */
+	public int removeExpiredEntries(long expireTime)
+	{
+        this.beginBatch();
+        try
+        {
+            int removed = 0;
+            for (int i = 0; i < this.slotCount; i++)
+            {
+                int chunk = i >>> CHUNK_BITS;
+                int index = i & CHUNK_MASK;
+                if (this.interfaces[chunk][index] < 0)
+                { continue; }
+                boolean expired = (this.paths[chunk][index] != null)
+                        ? this.removeExpiredPaths(i, expireTime)
+                        : (this.gateways[chunk][index] != 0 
+                                && this.timestamps[chunk][index] <= expireTime);
+                if (expired)
+                {
+                    this.removeEntry(this.destinations[chunk][index], 
+                            this.masks[chunk][index]);
+                    removed++;
+                }
+            }
+            return removed;
+        }
+        finally
+        { this.endBatch(); }
+	}
+	
+	/**
+	 * Remove the expired paths of a route with several paths; must be called
+	 * while holding the write lock. Paths without a gateway never expire.
+	 * @return true if every path expired, in which case the route is left
+	 *         as it was for the caller to remove
+	 */
+	private boolean removeExpiredPaths(int slot, long expireTime)
+	{
+        int[] routePaths = this.paths[slot >>> CHUNK_BITS][slot & CHUNK_MASK];
+        long[] times = this.pathTimestamps[slot];
+        int count = 0;
+        int[] keptPaths = new int[routePaths.length];
+        long[] keptTimes = new long[times.length];
+        for (int i = 0; i < times.length; i++)
+        {
+            if (routePaths[2 * i] != 0 && times[i] <= expireTime)
+            { continue; }
+            keptPaths[2 * count] = routePaths[2 * i];
+            keptPaths[2 * count + 1] = routePaths[2 * i + 1];
+            keptTimes[count] = times[i];
+            count++;
+        }
+        if (0 == count)
+        { return true; }
+        if (count < times.length)
+        {
+            this.setPaths(slot, Arrays.copyOf(keptPaths, 2 * count), 
+                    Arrays.copyOf(keptTimes, count));
+        }
+        return false;
+	}
+	
+	/**
+	 * Replace the paths of a route; must be called while holding the write
+	 * lock. The route's first path moves to the gateway and interface 
+	 * columns, and a route left with one path keeps no path arrays.
+	 * @param routePaths gateway and interface index pairs of the paths
+	 * @param times time each path was last advertised
+	 */
+	private void setPaths(int slot, int[] routePaths, long[] times)
+	{
+        int generation = this.nextGeneration();
+        int chunk = this.unshare(slot);
+        int index = slot & CHUNK_MASK;
+        this.gateways[chunk][index] = routePaths[0];
+        this.interfaces[chunk][index] = routePaths[1];
+        this.paths[chunk][index] = (routePaths.length > 2) ? routePaths : null;
+        this.pathTimestamps[slot] = (routePaths.length > 2) ? times : null;
+        long latest = 0;
+        for (long time : times)
+        { latest = Math.max(latest, time); }
+        this.timestamps[chunk][index] = latest;
+        if (this.flatTable != null)
+        { this.flatTable.setGeneration(generation); }
+        this.changed();
+	}
+	
 	/**
 	 * Update an entry in the route table.
 	 * @param dstIP destination IP of the entry to update
@@ -177,50 +1274,207 @@ public class RouteTable
 	public boolean updateEntry(int dstIp, int maskIp, int gwIp, 
             String ifaceName)
 	{
-        synchronized(this.entries)
+        this.writeLock.lock();
+        try
         {
-            RouteTableEntry entry = this.findEntry(dstIp, maskIp);
-            if (null == entry)
+            int slot = this.prefixIndex.get(PrefixIndex.key(dstIp, 
+                    RouteTrie.maskToLength(maskIp)));
+            if (slot < 0)
             { return false; }
-            entry.setGatewayAddress(gwIp);
-            entry.setInterface(ifaceName);
+            return this.updateEntry(dstIp, maskIp, gwIp, ifaceName, 
+                    this.metrics[slot >>> CHUNK_BITS][slot & CHUNK_MASK]);
         }
-        return true;
+        finally
+        { this.writeLock.unlock(); }
 	}
 
+	/**
+	 * Update an entry in the route table.
+	 * @param dstIP destination IP of the entry to update
+     * @param maskIp subnet mask of the entry to update
+	 * @param gatewayAddress new gateway IP address for matching entry
+	 * @param ifaceName new router interface name for matching entry
+	 * @param metric new metric for matching entry
+     * @return true if a matching entry was found and updated, otherwise false
+	 */
 	public boolean updateEntry(int dstIp, int maskIp, int gwIp, 
             String ifaceName, int metric)
 	{
-        synchronized(this.entries)
+        this.writeLock.lock();
+        try
         {
-            RouteTableEntry entry = this.findEntry(dstIp, maskIp);
-            if (null == entry)
+            int slot = this.prefixIndex.get(PrefixIndex.key(dstIp, 
+                    RouteTrie.maskToLength(maskIp)));
+            if (slot < 0)
             { return false; }
-            entry.setGatewayAddress(gwIp);
-            entry.setInterface(ifaceName);
-            entry.setMetric(metric);
+            this.setRoute(slot, 
+                    this.destinations[slot >>> CHUNK_BITS][slot & CHUNK_MASK], 
+                    gwIp, maskIp,
+                    this.getInterfaceIndex(ifaceName), metric);
         }
+        finally
+        { this.writeLock.unlock(); }
         return true;
 	}
+	
+	/**
+	 * Add an equal-cost path to an entry. The entry keeps its existing
+	 * paths, and the new path is marked as just advertised.
+	 * @param dstIP destination IP of the entry to update
+     * @param maskIp subnet mask of the entry to update
+	 * @param gwIp gateway IP address for the new path
+	 * @param ifaceName router interface name for the new path
+     * @return true if the path was added; false if no entry matches or the
+     *         entry already has the path
+	 */
+	public boolean addPath(int dstIp, int maskIp, int gwIp, String ifaceName)
+	{
+        this.writeLock.lock();
+        try
+        {
+            int slot = this.prefixIndex.get(PrefixIndex.key(dstIp, 
+                    RouteTrie.maskToLength(maskIp)));
+            if (slot < 0)
+            { return false; }
+            int ifaceIndex = this.getInterfaceIndex(ifaceName);
+            if (this.findPath(slot, gwIp, ifaceIndex) >= 0)
+            { return false; }
+            
+            int chunk = slot >>> CHUNK_BITS;
+            int index = slot & CHUNK_MASK;
+            int[] routePaths = this.paths[chunk][index];
+            long[] times = this.pathTimestamps[slot];
+            if (null == routePaths)
+            {
+                routePaths = new int[] { this.gateways[chunk][index], 
+                        this.interfaces[chunk][index] };
+                times = new long[] { this.timestamps[chunk][index] };
+            }
+            routePaths = Arrays.copyOf(routePaths, routePaths.length + 2);
+            routePaths[routePaths.length - 2] = gwIp;
+            routePaths[routePaths.length - 1] = ifaceIndex;
+            times = Arrays.copyOf(times, times.length + 1);
+            times[times.length - 1] = System.currentTimeMillis()/1000L;
+            this.setPaths(slot, routePaths, times);
+            return true;
+        }
+        finally
+        { this.writeLock.unlock(); }
+	}
+	
+	/**
+	 * Mark one path of an entry as just advertised; the entry's other paths
+	 * keep the time they were last advertised. Timestamps are not part of 
+	 * the route, so the change is not published to readers until the next
+	 * change to the routes.
+	 * @param dstIP destination IP of the entry to update
+     * @param maskIp subnet mask of the entry to update
+	 * @param gwIp gateway IP address of the path
+	 * @param ifaceName router interface name of the path
+     * @return true if a matching entry and path were found, otherwise false
+	 */
+	public boolean touchPath(int dstIp, int maskIp, int gwIp, 
+            String ifaceName)
+	{
+        this.writeLock.lock();
+        try
+        {
+            int slot = this.prefixIndex.get(PrefixIndex.key(dstIp, 
+                    RouteTrie.maskToLength(maskIp)));
+            if (slot < 0)
+            { return false; }
+            int path = this.findPath(slot, gwIp, 
+                    this.getInterfaceIndex(ifaceName));
+            if (path < 0)
+            { return false; }
+            long now = System.currentTimeMillis()/1000L;
+            if (this.pathTimestamps[slot] != null)
+            { this.pathTimestamps[slot][path] = now; }
+            this.timestamps[this.unshare(slot)][slot & CHUNK_MASK] = now;
+            return true;
+        }
+        finally
+        { this.writeLock.unlock(); }
+	}
+	
+	/**
+	 * Find a path of the route in an occupied slot; must be called while
+	 * holding the write lock.
+	 * @return index of the path; -1 if the route has no such path
+	 */
+	private int findPath(int slot, int gwIp, int ifaceIndex)
+	{
+        int chunk = slot >>> CHUNK_BITS;
+        int index = slot & CHUNK_MASK;
+        int[] routePaths = this.paths[chunk][index];
+        if (null == routePaths)
+        {
+            return (this.gateways[chunk][index] == gwIp 
+                    && this.interfaces[chunk][index] == ifaceIndex) ? 0 : -1;
+        }
+        for (int i = 0; i < routePaths.length; i += 2)
+        {
+            if (routePaths[i] == gwIp && routePaths[i + 1] == ifaceIndex)
+            { return i / 2; }
+        }
+        return -1;
+	}
+
+    /**
+	 * Find the entry whose prefix is the longest match for an IP address.
+	 * @param ip destination IP address
+	 * @return the best matching entry; null if no entry matches
+	 */
+    public RouteTableEntry lookup(int ip)
+    {
+        Snapshot routes = this.snapshot;
+        return routes.getEntry(routes.lookup(ip));
+    }
 
     /**
-	 * Find an entry in the route table.
+	 * Find the routes whose prefixes are the longest matches for a batch of
+	 * IP addresses, all in the latest snapshot.
+	 * @param ips destination IP addresses
+	 * @param routes filled with the slot of the best matching route for 
+	 *        each address; -1 if no route matches
+	 * @param count number of addresses
+	 * @return snapshot the slots belong to
+	 */
+    public Snapshot lookup(int[] ips, int[] routes, int count)
+    {
+        Snapshot snapshot = this.snapshot;
+        snapshot.lookup(ips, routes, count);
+        return snapshot;
+    }
+
+    /**
+	 * Find an entry in the route table. Host bits of the destination IP are
+	 * ignored.
 	 * @param dstIP destination IP of the entry to find
      * @param maskIp subnet mask of the entry to find
-     * @return a matching entry if one was found, otherwise null
+     * @return a copy of the matching entry if one was found, otherwise null
 	 */
     public RouteTableEntry findEntry(int dstIp, int maskIp)
     {
-        synchronized(this.entries)
+        this.writeLock.lock();
+        try
         {
-            for (RouteTableEntry entry : this.entries)
-            {
-                if ((entry.getDestinationAddress() == dstIp)
-                    && (entry.getMaskAddress() == maskIp)) 
-                { return entry; }
-            }
+            int slot = this.prefixIndex.get(PrefixIndex.key(dstIp, 
+                    RouteTrie.maskToLength(maskIp)));
+            if (slot < 0)
+            { return null; }
+            int chunk = slot >>> CHUNK_BITS;
+            int index = slot & CHUNK_MASK;
+            RouteTableEntry entry = new RouteTableEntry(
+                    this.destinations[chunk][index], 
+                    this.gateways[chunk][index], this.masks[chunk][index], 
+                    this.interfaceNames[this.interfaces[chunk][index]],
+                    this.metrics[chunk][index]);
+            entry.setTimestamp(this.timestamps[chunk][index]);
+            return entry;
         }
-        return null;
+        finally
+        { this.writeLock.unlock(); }
     }
 
 	/**
@@ -231,28 +1485,24 @@ public class RouteTable
 	 */
 	public boolean verify(Map<String,Iface> interfaces)
 	{
-        synchronized(this.entries)
-        { 
-            for (RouteTableEntry entry : this.entries)
-            {
-                if (!interfaces.containsKey(entry.getInterface()))
-                { return false; }
-            }
+        for (RouteTableEntry entry : this.getEntries())
+        {
+            if (!interfaces.containsKey(entry.getInterface()))
+            { return false; }
         }
 		return true;
 	}
 	
 	public String toString()
 	{
-        synchronized(this.entries)
-        { 
-            if (0 == this.entries.size())
-            { return " * warning* Routing table empty"; }
-            
-            String result = "Destination\tGateway\t\tMask\t\tIface\tMetric\n";
-            for (RouteTableEntry entry : entries)
-            { result += entry.toString()+"\n"; }
-		    return result;
-        }
+        List<RouteTableEntry> entries = this.getEntries();
+        if (0 == entries.size())
+        { return " * warning* Routing table empty"; }
+        
+        StringBuilder result = new StringBuilder(
+                "Destination\tGateway\t\tMask\t\tIface\tMetric\n");
+        for (RouteTableEntry entry : entries)
+        { result.append(entry.toString()).append('\n'); }
+        return result.toString();
 	}
 }
@@ -19,8 +19,12 @@ public class RouteTableEntry
 	 * the destination or gateway */
 	private String interfaceName;
 	
-	private long timestamp;
-    private int metric;	
+	/** Time (in seconds since the epoch) the route was last advertised; the
+	 * only field that changes once the entry is in a route table */
+	private volatile long timestamp;
+
+    private int metric;
+
 	/**
 	 * Create a new route table entry.
 	 * @param destinationAddress destination IP address
@@ -0,0 +1,376 @@
+package edu.wisc.cs.sdn.sr;
+
+/**
+ * Path-compressed binary (Patricia) trie of route table prefixes, used to
+ * find the longest prefix matching a destination IP in at most 32 steps.
+ * Each prefix maps to the slot of its route in the route table.
+ * Tries are immutable: insert and remove copy the path to the changed node
+ * and share every other node with the original trie, so readers can keep
+ * using an old trie while a new one is built.
+ * <p>
+ * A {@link Builder} creates a whole trie at once, changing its own nodes in
+ * place rather than copying them.
+ */
+public class RouteTrie
+{
+	/** An empty trie */
+	public static final RouteTrie EMPTY = new RouteTrie(
+			new Node(0, 0, -1, null, null, null));
+
+	/** A node in the trie; nodes without a route only exist to branch */
+	private static class Node
+	{
+		/** Prefix bits (host bits are zero) */
+		final int prefix;
+
+		/** Number of significant bits in the prefix */
+		final int length;
+
+		/** Slot of the route for the prefix; -1 if the node is only a branch
+		 *  point */
+		int route;
+
+		/** Children for a 0 or 1 bit following the prefix */
+		Node zero;
+		Node one;
+
+		/** Token of the builder that created the node; null once the node
+		 *  may not be changed in place */
+		final Object edit;
+
+		Node(int prefix, int length, int route, Node zero, Node one,
+				Object edit)
+		{
+			this.prefix = prefix;
+			this.length = length;
+			this.route = route;
+			this.zero = zero;
+			this.one = one;
+			this.edit = edit;
+		}
+
+		Node child(int bit)
+		{ return (0 == bit) ? this.zero : this.one; }
+
+		/** @return true if the node may be changed by a builder */
+		boolean editable(Object edit)
+		{ return (edit != null && this.edit == edit); }
+
+		Node withChild(int bit, Node child)
+		{ return this.withChild(bit, child, null); }
+
+		Node withChild(int bit, Node child, Object edit)
+		{
+			if (this.editable(edit))
+			{
+				if (0 == bit)
+				{ this.zero = child; }
+				else
+				{ this.one = child; }
+				return this;
+			}
+			if (0 == bit)
+			{ return new Node(prefix, length, route, child, one, edit); }
+			return new Node(prefix, length, route, zero, child, edit);
+		}
+	}
+
+	/** Root of the trie; always holds the zero-length prefix */
+	private final Node root;
+
+	private RouteTrie(Node root)
+	{ this.root = root; }
+
+	/**
+	 * Convert a prefix length into a subnet mask.
+	 * @param length number of leading one bits
+	 * @return subnet mask
+	 */
+	public static int lengthToMask(int length)
+	{ return (0 == length) ? 0 : (-1 << (32 - length)); }
+
+	/**
+	 * Convert a subnet mask into a prefix length.
+	 * @param mask subnet mask
+	 * @return number of one bits in the mask
+	 */
+	public static int maskToLength(int mask)
+	{ return Integer.bitCount(mask); }
+
+	/**
+	 * @return the bit of an address at a position, counting from the most
+	 *         significant bit
+	 */
+	private static int bitAt(int addr, int position)
+	{ return (addr >>> (31 - position)) & 1; }
+
+	/**
+	 * Add or replace the route for a prefix.
+	 * @param prefix destination IP of the prefix
+	 * @param length prefix length
+	 * @param route slot of the route for the prefix
+	 * @return a trie with the route added
+	 */
+	public RouteTrie insert(int prefix, int length, int route)
+	{
+		prefix &= lengthToMask(length);
+		return new RouteTrie(insert(this.root, prefix, length, route, null));
+	}
+
+	private static Node insert(Node node, int prefix, int length, int route,
+			Object edit)
+	{
+		if (node.length == length)
+		{
+			if (node.editable(edit))
+			{
+				node.route = route;
+				return node;
+			}
+			return new Node(prefix, length, route, node.zero, node.one, edit);
+		}
+
+		int bit = bitAt(prefix, node.length);
+		Node child = node.child(bit);
+		if (null == child)
+		{
+			return node.withChild(bit,
+					new Node(prefix, length, route, null, null, edit), edit);
+		}
+
+		// Number of leading bits shared by the new prefix and the child
+		int common = Math.min(Integer.numberOfLeadingZeros(
+				prefix ^ child.prefix), Math.min(length, child.length));
+		if (common == child.length)
+		{
+			return node.withChild(bit,
+					insert(child, prefix, length, route, edit), edit);
+		}
+
+		Node inserted;
+		if (common == length)
+		{
+			// New prefix sits between the node and the child
+			inserted = new Node(prefix, length, route, null, null, edit)
+					.withChild(bitAt(child.prefix, length), child, edit);
+		}
+		else
+		{
+			// New prefix and the child diverge; add a branch point
+			inserted = new Node(prefix & lengthToMask(common), common, -1,
+					null, null, edit)
+					.withChild(bitAt(child.prefix, common), child, edit)
+					.withChild(bitAt(prefix, common),
+							new Node(prefix, length, route, null, null, edit),
+							edit);
+		}
+		return node.withChild(bit, inserted, edit);
+	}
+
+	/**
+	 * Creates a trie from scratch. Nodes belong to the builder until the
+	 * trie is built, so adding a route changes them in place; adding routes
+	 * in order of prefix keeps each add close to the one before it.
+	 */
+	public static class Builder
+	{
+		/** Token marking the nodes this builder may change */
+		private final Object edit;
+
+		/** Root of the trie being built */
+		private final Node root;
+
+		/** Nodes on the path to the route added last, excluding the root */
+		private final Node[] path;
+		private int depth;
+
+		public Builder()
+		{
+			this.edit = new Object();
+			this.root = new Node(0, 0, -1, null, null, this.edit);
+			this.path = new Node[32];
+			this.depth = 0;
+		}
+
+		/**
+		 * Add or replace the route for a prefix.
+		 * @param prefix destination IP of the prefix
+		 * @param length prefix length
+		 * @param route slot of the route for the prefix
+		 */
+		public void add(int prefix, int length, int route)
+		{
+			prefix &= lengthToMask(length);
+
+			// Start from the deepest node on the last path that covers the
+			// prefix
+			while (this.depth > 0)
+			{
+				Node top = this.path[this.depth - 1];
+				if (top.length <= length && ((prefix ^ top.prefix)
+						& lengthToMask(top.length)) == 0)
+				{ break; }
+				this.depth--;
+			}
+			Node start = (this.depth > 0) ? this.path[this.depth - 1]
+					: this.root;
+			insert(start, prefix, length, route, this.edit);
+
+			// Remember the path to the new node
+			Node node = start;
+			while (node.length != length)
+			{
+				node = node.child(bitAt(prefix, node.length));
+				this.path[this.depth++] = node;
+			}
+		}
+
+		/**
+		 * @return the trie; the builder must not be used afterwards
+		 */
+		public RouteTrie build()
+		{ return new RouteTrie(this.root); }
+	}
+
+	/**
+	 * Remove the route for a prefix.
+	 * @param prefix destination IP of the prefix
+	 * @param length prefix length
+	 * @return a trie without the route; this trie if the prefix had no route
+	 */
+	public RouteTrie remove(int prefix, int length)
+	{
+		prefix &= lengthToMask(length);
+		Node newRoot = remove(this.root, prefix, length);
+		if (newRoot == this.root)
+		{ return this; }
+		if (null == newRoot)
+		{ return EMPTY; }
+		if (newRoot.length != 0)
+		{
+			// The root must always hold the zero-length prefix
+			newRoot = new Node(0, 0, -1, null, null, null)
+					.withChild(bitAt(newRoot.prefix, 0), newRoot);
+		}
+		return new RouteTrie(newRoot);
+	}
+
+	/**
+	 * @return the subtree without the prefix; the same node if the prefix
+	 *         was not found; null if the subtree became empty
+	 */
+	private static Node remove(Node node, int prefix, int length)
+	{
+		if (node.length == length)
+		{
+			if (node.prefix != prefix || node.route < 0)
+			{ return node; }
+			return collapse(new Node(node.prefix, node.length, -1,
+					node.zero, node.one, null));
+		}
+
+		int bit = bitAt(prefix, node.length);
+		Node child = node.child(bit);
+		if (null == child || child.length > length
+				|| ((prefix ^ child.prefix) & lengthToMask(child.length)) != 0)
+		{ return node; }
+
+		Node newChild = remove(child, prefix, length);
+		if (newChild == child)
+		{ return node; }
+		return collapse(node.withChild(bit, newChild));
+	}
+
+	/**
+	 * Drop a node that neither holds a route nor branches.
+	 */
+	private static Node collapse(Node node)
+	{
+		if (node.route >= 0 || (node.zero != null && node.one != null))
+		{ return node; }
+		return (node.zero != null) ? node.zero : node.one;
+	}
+
+	/**
+	 * Find the route for the longest prefix that matches an IP address.
+	 * @param ip destination IP address
+	 * @return slot of the matching route; -1 if no prefix matches
+	 */
+	public int lookup(int ip)
+	{ return this.lookup(ip, 32); }
+
+	/**
+	 * Find the route for the longest prefix, no longer than a given length,
+	 * that matches an IP address.
+	 * @param ip destination IP address
+	 * @param maxLength longest prefix length to consider
+	 * @return slot of the matching route; -1 if no prefix matches
+	 */
+	public int lookup(int ip, int maxLength)
+	{
+		int match = -1;
+		Node node = this.root;
+		while (node != null && node.length <= maxLength)
+		{
+			if (((ip ^ node.prefix) & lengthToMask(node.length)) != 0)
+			{ break; }
+			if (node.route >= 0)
+			{ match = node.route; }
+			if (32 == node.length)
+			{ break; }
+			node = node.child(bitAt(ip, node.length));
+		}
+		return match;
+	}
+
+	/** Number of lookups a batch walks down the trie side by side */
+	private static final int BATCH_WIDTH = 16;
+
+	/**
+	 * Find the routes for the longest prefixes that match a batch of IP
+	 * addresses. Lookups are walked down the trie in groups, one level at a
+	 * time, so the memory reads of different lookups overlap.
+	 * @param ips destination IP addresses
+	 * @param routes filled with the slot of the matching route for each
+	 *        address; -1 if no prefix matches
+	 * @param count number of addresses
+	 */
+	public void lookup(int[] ips, int[] routes, int count)
+	{
+		Node[] nodes = new Node[BATCH_WIDTH];
+		for (int base = 0; base < count; base += BATCH_WIDTH)
+		{
+			int width = Math.min(BATCH_WIDTH, count - base);
+			for (int j = 0; j < width; j++)
+			{
+				nodes[j] = this.root;
+				routes[base + j] = -1;
+			}
+
+			int active = width;
+			while (active > 0)
+			{
+				active = 0;
+				for (int j = 0; j < width; j++)
+				{
+					Node node = nodes[j];
+					if (null == node)
+					{ continue; }
+					int ip = ips[base + j];
+					if (((ip ^ node.prefix) & lengthToMask(node.length)) != 0)
+					{
+						nodes[j] = null;
+						continue;
+					}
+					if (node.route >= 0)
+					{ routes[base + j] = node.route; }
+					node = (32 == node.length) ? null
+							: node.child(bitAt(ip, node.length));
+					nodes[j] = node;
+					if (node != null)
+					{ active++; }
+				}
+			}
+		}
+	}
+}
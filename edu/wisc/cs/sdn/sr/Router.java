@@ -1,21 +1,22 @@
 package edu.wisc.cs.sdn.sr;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedList;
-import java.util.List;
-import java.util.Iterator;
 import java.util.Map;
 import java.util.Random;
 
 import edu.wisc.cs.sdn.sr.vns.VNSComm;
 import edu.wisc.cs.sdn.sr.RouteTable;
-import edu.wisc.cs.sdn.sr.RouteTableEntry;
 
 import net.floodlightcontroller.packet.ARP;
 import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.FrameView;
 import net.floodlightcontroller.packet.ICMP;
 import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.packet.PacketPool;
+import net.floodlightcontroller.packet.TCP;
 import net.floodlightcontroller.packet.UDP;
 import net.floodlightcontroller.packet.Data;
 import net.floodlightcontroller.util.MACAddress;
@@ -40,9 +41,16 @@ public class Router
 	/** List of the router's interfaces; maps interface name's to interfaces */
 	private Map<String,Iface> interfaces;
 	
+	/** The router's interfaces, by the index the route table assigned to the
+	 *  interface's name */
+	private Iface[] interfaceTable;
+	
 	/** Routing table for the router */
 	private RouteTable routeTable;
 	
+	/** Cache of recent route lookups */
+	private RouteCache routeCache;
+	
 	/** ARP cache for the router */
 	private ArpCache arpCache;
 	
@@ -56,6 +64,9 @@ public class Router
     /** RIP subsystem */
     private RIP rip;
 	
+	/** Pool received packets are decoded into; null if not pooled */
+	private PacketPool packetPool;
+	
 	/**
 	 * Creates a router for a specific topology, host, and user.
 	 * @param topo topology ID for the router
@@ -71,10 +82,13 @@ public class Router
 		this.template = template;
 		this.logfile = null;
 		this.interfaces = new HashMap<String,Iface>();
+		this.interfaceTable = new Iface[0];
 		this.routeTable = new RouteTable();
+		this.routeCache = new RouteCache(RouteCache.DEFAULT_SIZE);
 		this.arpCache = new ArpCache(this);
 		this.vnsComm = null;
         this.rip = new RIP(this);
+		this.packetPool = null;
 	}
 	
 	public void init()
@@ -142,6 +156,18 @@ public class Router
 	public RouteTable getRouteTable()
 	{ return this.routeTable; }
 	
+	/**
+	 * @return cache of recent route lookups
+	 */
+	public RouteCache getRouteCache()
+	{ return this.routeCache; }
+	
+	/**
+	 * @param size number of slots in the cache of recent route lookups
+	 */
+	public void setRouteCacheSize(int size)
+	{ this.routeCache = new RouteCache(size); }
+	
 	/**
 	 * @return list of the router's interfaces; maps interface name's to
 	 * 	       interfaces
@@ -156,12 +182,33 @@ public class Router
 	{ this.vnsComm = vnsComm; }
 	
 	/**
-	 * Close the PCAP dump file for the router, if logging is enabled.
+	 * @param packetPool pool to decode received packets into, and return 
+	 *        them to once handled; installed as the source of all decoded
+	 *        payloads
+	 */
+	public void setPacketPool(PacketPool packetPool)
+	{
+		this.packetPool = packetPool;
+		packetPool.install();
+	}
+	
+	/**
+	 * @return pool received packets are decoded into; null if not pooled
+	 */
+	public PacketPool getPacketPool()
+	{ return this.packetPool; }
+	
+	/**
+	 * Close the PCAP dump file for the router, if logging is enabled, and 
+	 * trace the route and ARP cache statistics.
 	 */
 	public void destroy()
 	{
 		if (logfile != null)
 		{ this.logfile.close(); }
+		Trace.log(Trace.Level.INFO, "", this.routeCache);
+		Trace.log(Trace.Level.INFO, "", this.arpCache);
+		Trace.flush();
 	}
 	
 	/**
@@ -183,6 +230,36 @@ public class Router
 		System.out.println("---------------------------------------------");
 	}
 	
+	/**
+	 * Load the routing table from a binary snapshot file.
+	 * @param snapshotFile the name of the snapshot file
+	 * @return true if the snapshot was loaded, otherwise false
+	 */
+	public boolean loadRouteSnapshot(String snapshotFile)
+	{
+		if (!this.routeTable.loadSnapshot(snapshotFile))
+		{ return false; }
+		
+		System.out.println("Loading routing table from snapshot");
+		System.out.println("---------------------------------------------");
+		System.out.print(this.routeTable.toString());
+		System.out.println("---------------------------------------------");
+		return true;
+	}
+	
+	/**
+	 * Save the routing table to a binary snapshot file.
+	 * @param snapshotFile the name of the snapshot file
+	 */
+	public void saveRouteSnapshot(String snapshotFile)
+	{
+		if (!this.routeTable.save(snapshotFile))
+		{
+			System.err.println("Error saving routing table to snapshot "
+					+ snapshotFile);
+		}
+	}
+	
 	/**
 	 * Add an interface to the router.
 	 * @param ifaceName the name of the interface
@@ -190,7 +267,15 @@ public class Router
 	public Iface addInterface(String ifaceName)
 	{
 		Iface iface = new Iface(ifaceName);
+		int index = this.routeTable.getInterfaceIndex(ifaceName);
+		iface.setIndex(index);
 		this.interfaces.put(ifaceName, iface);
+		if (index >= this.interfaceTable.length)
+		{
+			this.interfaceTable = Arrays.copyOf(this.interfaceTable, 
+					index + 1);
+		}
+		this.interfaceTable[index] = iface;
 		return iface;
 	}
 	
@@ -203,6 +288,17 @@ public class Router
 	public Iface getInterface(String ifaceName)
 	{ return this.interfaces.get(ifaceName); }
 	
+	/**
+	 * Gets an interface on the router by the interface's index.
+	 * @param index index of the desired interface
+	 * @return requested interface; null if no interface has the given index
+	 */
+	public Iface getInterface(int index)
+	{
+		Iface[] table = this.interfaceTable;
+		return (index >= 0 && index < table.length) ? table[index] : null;
+	}
+	
 	/**
 	 * Send an Ethernet packet out a specific interface.
 	 * @param etherPacket an Ethernet packet with all fields, encapsulated
@@ -212,63 +308,145 @@ public class Router
 	 */
 	public boolean sendPacket(Ethernet etherPacket, Iface iface)
 	{ return this.vnsComm.sendPacket(etherPacket, iface.getName()); }
+	
+	/**
+	 * Send an Ethernet frame out a specific interface, straight from its 
+	 * bytes. The bytes in front of the frame may be overwritten.
+	 * @param frame an Ethernet frame with all fields completed
+	 * @param iface interface on which to send the frame
+	 * @return true if the frame was sent successfully, otherwise false
+	 */
+	public boolean sendPacket(FrameView frame, Iface iface)
+	{ return this.vnsComm.sendPacket(frame, iface.getName()); }
 
-	public RouteTableEntry longestPrefixMatch(int destAddr)
-	{
-		List<RouteTableEntry> rteList;
-		Iterator<RouteTableEntry> rteIter;
-		RouteTableEntry rteMatch = null;
-		int rteMatchLen = -1;
+	/**
+	 * Find the route whose prefix is the longest match for a destination IP
+	 * address. Recent results are served from the route cache.
+	 * @param routes snapshot of the route table to search
+	 * @param destAddr destination IP address
+	 * @return slot of the best matching route in the snapshot; -1 if no
+	 *         route matches
+	 */
+	public int longestPrefixMatch(RouteTable.Snapshot routes, int destAddr)
+	{ return this.routeCache.lookup(destAddr, routes); }
 
-		rteList = this.getRouteTable().getEntries();
-		rteIter = rteList.iterator();
+	/**
+	 * Find the routes whose prefixes are the longest matches for a batch of
+	 * destination IP addresses. Recent results are served from the route
+	 * cache.
+	 * @param routes snapshot of the route table to search
+	 * @param destAddrs destination IP addresses
+	 * @param matches filled with the slot of the best matching route in the
+	 *        snapshot for each address; -1 if no route matches
+	 * @param count number of addresses
+	 */
+	public void longestPrefixMatch(RouteTable.Snapshot routes, 
+			int[] destAddrs, int[] matches, int count)
+	{ this.routeCache.lookup(destAddrs, matches, count, routes); }
 
-		while(rteIter.hasNext())
+	/**
+	 * Hash the fields identifying the flow a packet belongs to: addresses,
+	 * protocol and, for TCP and UDP packets that are not fragments, ports.
+	 * @param ipPacket an IPv4 packet
+	 * @return hash of the packet's flow
+	 */
+	public static int flowHash(IPv4 ipPacket)
+	{
+		int ports = 0;
+		boolean fragment = ((ipPacket.getFlags() & IPv4.IPV4_FLAGS_MOREFRAG) != 0
+				|| ipPacket.getFragmentOffset() != 0);
+		if (!fragment && ipPacket.getPayload() instanceof TCP)
 		{
-			RouteTableEntry rte;
-			int suffixLen;
-			int rtePrefix;
-			int packetPrefix;
-
-			rte = rteIter.next();
-			suffixLen =	(int)
-						(Math.log(~rte.getMaskAddress())
-						/Math.log(2));
-
-			rtePrefix =	rte.getDestinationAddress()
-						&rte.getMaskAddress();
-
-			packetPrefix = destAddr&rte.getMaskAddress();
-
-			if(rtePrefix == packetPrefix
-			&& 32-suffixLen < rteMatchLen)
-			{
-				rteMatchLen = 32-suffixLen;
-				rteMatch = rte;
-			}
+			TCP tcpPacket = (TCP)ipPacket.getPayload();
+			ports = (tcpPacket.getSourcePort() << 16) 
+					| (tcpPacket.getDestinationPort() & 0xFFFF);
 		}
-
-		return rteMatch;
+		else if (!fragment && ipPacket.getPayload() instanceof UDP)
+		{
+			UDP udpPacket = (UDP)ipPacket.getPayload();
+			ports = (udpPacket.getSourcePort() << 16) 
+					| (udpPacket.getDestinationPort() & 0xFFFF);
+		}
+		return flowHash(ipPacket.getSourceAddress(), 
+				ipPacket.getDestinationAddress(), ipPacket.getProtocol(), 
+				ports);
+	}
+	
+	/**
+	 * Hash the fields identifying the flow a frame belongs to, the same way
+	 * as for a decoded packet.
+	 * @param frame a frame holding an IPv4 packet
+	 * @return hash of the frame's flow
+	 */
+	public static int flowHash(FrameView frame)
+	{
+		int ports = 0;
+		if (frame.hasPorts())
+		{
+			ports = (frame.getSourcePort() << 16) 
+					| (frame.getDestinationPort() & 0xFFFF);
+		}
+		return flowHash(frame.getSourceAddress(), 
+				frame.getDestinationAddress(), frame.getProtocol(), ports);
+	}
+	
+	/**
+	 * Hash the fields identifying a flow.
+	 * @param srcAddr source IP address
+	 * @param destAddr destination IP address
+	 * @param protocol IP protocol
+	 * @param ports source port in the upper 16 bits and destination port in
+	 *        the lower 16 bits; 0 if the packet has no ports
+	 * @return hash of the flow
+	 */
+	public static int flowHash(int srcAddr, int destAddr, byte protocol, 
+			int ports)
+	{
+		long h = ((long)srcAddr << 32) | (destAddr & 0xFFFFFFFFL);
+		h ^= ((long)ports << 8) * 0x9E3779B97F4A7C15L + protocol;
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		h ^= h >>> 33;
+		return (int)h;
+	}
+	
+	/**
+	 * Find the next hop for a packet taking a path of a route.
+	 * @param routes snapshot of the route table the route belongs to
+	 * @param route slot of the route
+	 * @param path index of the path
+	 * @param destAddr destination IP address of the packet
+	 * @return the path's gateway; the packet's destination if the route is
+	 *         for a directly connected subnet
+	 */
+	private static int nextHop(RouteTable.Snapshot routes, int route, 
+			int path, int destAddr)
+	{
+		int gateway = routes.getGatewayAddress(route, path);
+		return (0 == gateway) ? destAddr : gateway;
 	}
 
 	public void sendIcmp(int destAddr, byte type, byte code, Data data)
 	{
-		RouteTableEntry rteMatch = this.longestPrefixMatch(destAddr);
+		RouteTable.Snapshot routes = this.routeTable.getSnapshot();
+		int rteMatch = this.longestPrefixMatch(routes, destAddr);
 		Ethernet etherPacket = new Ethernet();
 		IPv4 ipPacket = new IPv4();
 		ICMP icmpPacket = new ICMP();
 
-		ArpEntry arp;
+		long nextMac;
 		Iface outIface;
 		int next;
 
-		System.out.println("SENDICMP");
+		Trace.log(Trace.Level.DEBUG, "SENDICMP");
 
-		if(rteMatch != null)
+		if(rteMatch >= 0)
 		{
-			next = rteMatch.getDestinationAddress();
-			arp = this.arpCache.lookup(next);
-			outIface = this.getInterface(rteMatch.getInterface());
+			next = nextHop(routes, rteMatch, 0, destAddr);
+			nextMac = this.arpCache.lookup(next);
+			outIface = this.getInterface(routes.getInterfaceIndex(rteMatch));
 
 			icmpPacket.setIcmpType(type);
 			icmpPacket.setIcmpCode(code);
@@ -284,33 +462,114 @@ public class Router
 			ipPacket.setPayload(icmpPacket);
 			ipPacket.serialize(); // trigger checksum calculation
 
-			System.out.println("ICMPCHK: "+icmpPacket.serialize().length);
-			System.out.println("IPv4CHK: "+ipPacket.serialize().length);
+			if (Trace.isEnabled(Trace.Level.DEBUG))
+			{
+				Trace.log(Trace.Level.DEBUG,
+						"ICMPCHK: "+icmpPacket.serialize().length);
+				Trace.log(Trace.Level.DEBUG,
+						"IPv4CHK: "+ipPacket.serialize().length);
+			}
 
 			etherPacket.setEtherType(Ethernet.TYPE_IPv4);
 			etherPacket.setPayload(ipPacket);
 
-			if(arp == null)
+			if(nextMac == ArpTable.NO_MAC)
 			{
 				this.arpCache.waitForArp(etherPacket, outIface, next);
 
-				System.out.println("Packet waits for ARP");
+				Trace.log(Trace.Level.INFO, "Packet waits for ARP");
 			}
 			else
 			{
-				String srcMac = outIface.getMacAddress().toString();
-				String destMac = arp.getMac().toString();
-
-				etherPacket.setSourceMACAddress(srcMac);
-				etherPacket.setDestinationMACAddress(destMac);
+				etherPacket.setSourceMACAddress(outIface.getMacAddress());
+				etherPacket.setDestinationMACAddress(nextMac);
 
-				System.out.println("SENDICMPPKT: "+etherPacket.toString());
+				Trace.log(Trace.Level.PACKET, "SENDICMPPKT: ", etherPacket);
 				this.sendPacket(etherPacket, outIface);
-				System.out.println("Packet sent");
+				Trace.log(Trace.Level.DEBUG, "Packet sent");
 			}
 		}
 	}
 	
+	/**
+	 * Handle an Ethernet frame received on a specific interface. IPv4 packets
+	 * that are forwarded to a next hop whose MAC address is known are 
+	 * forwarded straight from the frame's bytes; all other frames are 
+	 * decoded and handled as packets.
+	 * @param frame the Ethernet frame that was received
+	 * @param inIface the interface on which the frame was received
+	 */
+	public void handlePacket(FrameView frame, Iface inIface)
+	{
+		if (this.forwardFrame(frame, inIface))
+		{ return; }
+		
+		if (null == this.packetPool)
+		{
+			this.handlePacket(frame.toEthernet(), inIface);
+			return;
+		}
+		
+		Ethernet etherPacket = this.packetPool.decode(frame.getData(), 
+				frame.getOffset(), frame.getLength());
+		try
+		{ this.handlePacket(etherPacket, inIface); }
+		finally
+		{
+			// Everything sent in response has been sent, and packets kept 
+			// for later have been copied
+			this.packetPool.release(etherPacket);
+			if (this.packetPool.isDetectingLeaks())
+			{ this.packetPool.reportLeaks(); }
+		}
+	}
+	
+	/**
+	 * Forward an IPv4 packet without decoding it, rewriting its TTL, checksum
+	 * and MAC addresses in place.
+	 * @param frame the Ethernet frame that was received
+	 * @param inIface the interface on which the frame was received
+	 * @return true if the frame was forwarded; false if it must be decoded
+	 *         and handled as a packet
+	 */
+	private boolean forwardFrame(FrameView frame, Iface inIface)
+	{
+		if (!frame.isIPv4() || !frame.isIpChecksumValid())
+		{ return false; }
+		
+		int destAddr = frame.getDestinationAddress();
+		if (destAddr == inIface.getIpAddress() 
+				|| destAddr == RIP.RIP_MULTICAST_IP
+				|| (frame.getTtl() & 0xFF) <= 1)
+		{ return false; }
+		
+		RouteTable.Snapshot routes = this.routeTable.getSnapshot();
+		int rteMatch = this.longestPrefixMatch(routes, destAddr);
+		if (rteMatch < 0)
+		{ return false; }
+		
+		// Spread flows over equal-cost paths
+		int path = routes.selectPath(rteMatch, 
+				(routes.getPathCount(rteMatch) > 1) ? flowHash(frame) : 0);
+		Iface outIface = this.getInterface(
+				routes.getInterfaceIndex(rteMatch, path));
+		long nextMac = this.arpCache.lookup(
+				nextHop(routes, rteMatch, path, destAddr));
+		if (null == outIface || ArpTable.NO_MAC == nextMac)
+		{ return false; }
+		
+		// Learn the sender's MAC address, as for decoded packets
+		long srcMac = frame.getSourceMAC();
+		this.sendWaitingFrames(this.arpCache.insert(srcMac, 
+				frame.getSourceAddress(), inIface), srcMac);
+		
+		frame.decrementTtl();
+		frame.setSourceMAC(outIface.getMacAddress());
+		frame.setDestinationMAC(nextMac);
+		this.sendPacket(frame, outIface);
+		return true;
+	}
+	
 	/**
 	 * Handle an Ethernet packet received on a specific interface.
 	 * @param etherPacket the Ethernet packet that was received
@@ -318,8 +577,11 @@ public class Router
 	 */
 	public void handlePacket(Ethernet etherPacket, Iface inIface)
 	{
-		System.out.println("*** -> Received ipPacket: " +
-                etherPacket.toString().replace("\n", "\n\t"));
+		if (Trace.isEnabled(Trace.Level.PACKET))
+		{
+			Trace.log(Trace.Level.PACKET, "*** -> Received ipPacket: " +
+					etherPacket.toString().replace("\n", "\n\t"));
+		}
 		
 		/********************************************************************/
 		/* TODO: Handle ipPackets                                             */
@@ -330,27 +592,23 @@ public class Router
 		if(etherType == Ethernet.TYPE_IPv4)
 		{
 			IPv4 ipPacket = (IPv4)etherPacket.getPayload();
-			IPv4 newIpPacket = (IPv4)ipPacket.clone();
 			int dest = ipPacket.getDestinationAddress();
 
-			// Recalculate checksum
-			newIpPacket.resetChecksum();
-			newIpPacket.serialize();
-
-			System.out.println("IPv4");
+			Trace.log(Trace.Level.DEBUG, "IPv4");
 
-			// TODO: Verify that checksum actually works
-			if(ipPacket.getChecksum() == newIpPacket.getChecksum())
+			if(ipPacket.isChecksumValid())
 			{
-				arpCache.insert(	etherPacket.getSourceMAC(),
-									ipPacket.getSourceAddress() );
+				long srcMac = etherPacket.getSourceMACAsLong();
+				this.sendWaitingFrames(arpCache.insert(	srcMac,
+									ipPacket.getSourceAddress(),
+									inIface ), srcMac);
 
 				if(dest == inIface.getIpAddress()
 				|| dest == RIP.RIP_MULTICAST_IP) // RIP multicast
 				{
 					if(ipPacket.getProtocol() == IPv4.PROTOCOL_ICMP)
 					{
-						System.out.println("ICMP");
+						Trace.log(Trace.Level.DEBUG, "ICMP");
 
 						ICMP icmpPacket = (ICMP)ipPacket.getPayload();
 						Data icmpData = (Data)icmpPacket.getPayload();
@@ -362,11 +620,11 @@ public class Router
 					{
 						UDP udpPacket = (UDP)ipPacket.getPayload();
 
-						System.out.println("UDP");
+						Trace.log(Trace.Level.DEBUG, "UDP");
 
 						if(udpPacket.getDestinationPort() == UDP.RIP_PORT)
 						{
-							System.out.println("RIP");
+							Trace.log(Trace.Level.DEBUG, "RIP");
 							this.rip.handlePacket(etherPacket, inIface);
 						}
 						else
@@ -384,7 +642,7 @@ public class Router
 											(byte)3,
 											icmpData );
 
-							System.out.println("Non-520 UDP");
+							Trace.log(Trace.Level.INFO, "Non-520 UDP");
 						}
 					}
 					else if(ipPacket.getProtocol() == IPv4.PROTOCOL_TCP)
@@ -402,23 +660,26 @@ public class Router
 										(byte)3,
 										icmpData );
 
-						System.out.println("Non-520 TCP");
+						Trace.log(Trace.Level.INFO, "Non-520 TCP");
 					}
 				}
 				else
 				{
-					RouteTableEntry rteMatch;
+					RouteTable.Snapshot routes;
+					int rteMatch;
+					int path;
 					Iface outIface;
-					ArpEntry arp;
+					long nextMac;
 					int next;
 
-					if(ipPacket.getTtl()-1 > 0)
+					if((ipPacket.getTtl() & 0xFF)-1 > 0)
 					{
+						routes = this.routeTable.getSnapshot();
 						rteMatch
 							= this.longestPrefixMatch
-								(ipPacket.getDestinationAddress());
+								(routes, ipPacket.getDestinationAddress());
 
-						if(rteMatch == null)
+						if(rteMatch < 0)
 						{
 							Data icmpData = new Data();
 							byte[] icmpDataBytes = new byte[32];
@@ -433,21 +694,28 @@ public class Router
 											(byte)0,
 											icmpData );
 
-							System.out.println("No route to host");
+							Trace.log(Trace.Level.INFO, "No route to host");
 
 							// TODO: Avoid early exit
 							return;
 						}
 						else
 						{
-							next = rteMatch.getDestinationAddress();
-							outIface = this.getInterface(rteMatch.getInterface());
-							arp = this.arpCache.lookup(next);
-
-							System.out.println("TTL: "+(ipPacket.getTtl()-1));
-							ipPacket.setTtl((byte)(ipPacket.getTtl()-1));
-							ipPacket.resetChecksum();
-							ipPacket.serialize();
+							// Spread flows over equal-cost paths
+							path = routes.selectPath(rteMatch, 
+									(routes.getPathCount(rteMatch) > 1)
+									? flowHash(ipPacket) : 0);
+							next = nextHop(routes, rteMatch, path, dest);
+							outIface = this.getInterface(
+									routes.getInterfaceIndex(rteMatch, path));
+							nextMac = this.arpCache.lookup(next);
+
+							if (Trace.isEnabled(Trace.Level.DEBUG))
+							{
+								Trace.log(Trace.Level.DEBUG,
+										"TTL: "+(ipPacket.getTtl()-1));
+							}
+							ipPacket.decrementTtl();
 						}
 					}
 					else
@@ -465,40 +733,37 @@ public class Router
 										(byte)0,
 										icmpData );
 
-						System.out.println("TTL expired");
+						Trace.log(Trace.Level.INFO, "TTL expired");
 
 						// TODO: Avoid early exit
 						return;
 					}
 
-					if(arp == null)
+					if(nextMac == ArpTable.NO_MAC)
 					{
 						this.arpCache.waitForArp(etherPacket, outIface, next);
 
-						System.out.println("Packet waits for ARP");
+						Trace.log(Trace.Level.INFO, "Packet waits for ARP");
 					}
 					else
 					{
-						String srcMac = outIface.getMacAddress().toString();
-						String destMac = arp.getMac().toString();
-
-						etherPacket.setSourceMACAddress(srcMac);
-						etherPacket.setDestinationMACAddress(destMac);
+						etherPacket.setSourceMACAddress(outIface.getMacAddress());
+						etherPacket.setDestinationMACAddress(nextMac);
 						this.sendPacket(etherPacket, outIface);
 
-						System.out.println("Packet sent: "+etherPacket.toString());
+						Trace.log(Trace.Level.PACKET, "Packet sent: ", etherPacket);
 					}
 				}
 			}
 			else
 			{
 				// TODO: handle errors
-				System.out.println("Checksum mismatch");
+				Trace.log(Trace.Level.INFO, "Checksum mismatch");
 			}
 		}
 		else if(etherType == Ethernet.TYPE_ARP)
 		{
-				System.out.println("ARP");
+				Trace.log(Trace.Level.DEBUG, "ARP");
 				this.handleArpPacket(etherPacket, inIface);
 		}
 	}
@@ -534,38 +799,51 @@ public class Router
 			// Update ARP cache with contents of ARP reply
 		    int senderIp = ByteBuffer.wrap(
 				    arpPacket.getSenderProtocolAddress()).getInt();
-			ArpRequest request = this.arpCache.insert(
-					new MACAddress(arpPacket.getSenderHardwareAddress()),
-					senderIp);
+			long senderMac = 
+					MACAddress.toLong(arpPacket.getSenderHardwareAddress(), 0);
+			ArpRequest request = this.arpCache.insert(senderMac, senderIp, 
+					inIface);
 			
 			// Process pending ARP request entry, if there is one
-			if (request != null)
-			{				
-				for (Ethernet packet : request.getWaitingPackets())
-				{
-					/*********************************************************/
-					/* TODO: send packet waiting on this request             */
-					
-					/*********************************************************/
-					System.out.println("PQUEUE");
-
-					IPv4 ipPacket = (IPv4)packet.getPayload();
-					int destAddr = ipPacket.getDestinationAddress();
-					RouteTableEntry rteMatch = this.longestPrefixMatch(destAddr);
-					Iface outIface = this.getInterface(rteMatch.getInterface());
-					int next = rteMatch.getDestinationAddress();
-					ArpEntry arp = this.arpCache.lookup(next);
-					String srcMac = outIface.getMacAddress().toString();
-					String destMac = arp.getMac().toString();
-
-					packet.setSourceMACAddress(srcMac);
-					packet.setDestinationMACAddress(destMac);
-
-					this.sendPacket(packet, outIface);
-					System.out.println("Queued packet sent: "+packet.toString());
-				}
-			}
+			this.sendWaitingFrames(request, senderMac);
 			break;
 		}
 	}
+	
+	/**
+	 * Send the frames waiting on an ARP request that has been answered.
+	 * @param request the answered request, as returned by ArpCache.insert;
+	 *        nothing is sent if null
+	 * @param mac the MAC address the request resolved to
+	 */
+	private void sendWaitingFrames(ArpRequest request, long mac)
+	{
+		if (null == request)
+		{ return; }
+		
+		// Every frame waiting on the request was routed to the resolved
+		// address, out the request's interface
+		Iface outIface = request.getIface();
+		FrameView frame = new FrameView();
+		byte[] data;
+		while ((data = request.dequeueFrame()) != null)
+		{
+			/*************************************************************/
+			/* TODO: send packet waiting on this request                 */
+			
+			/*************************************************************/
+			Trace.log(Trace.Level.DEBUG, "PQUEUE");
+
+			frame.wrap(data, 0, data.length);
+			frame.setSourceMAC(outIface.getMacAddress());
+			frame.setDestinationMAC(mac);
+
+			this.sendPacket(frame, outIface);
+			if (Trace.isEnabled(Trace.Level.PACKET))
+			{
+				Trace.log(Trace.Level.PACKET, "Queued packet sent: ", 
+						frame.toEthernet());
+			}
+		}
+	}
 }
@@ -0,0 +1,228 @@
+package edu.wisc.cs.sdn.sr;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Level-gated tracing of the router's packet handling. Messages at or below
+ * the current level are queued in a bounded ring and printed to standard out
+ * by a background thread, so the threads handling packets never wait on the
+ * console; messages that arrive while the ring is full are dropped and
+ * counted.
+ * <p>
+ * A message is only built once its level has been checked, so tracing that
+ * is off costs one volatile read per call site. Messages that need more than
+ * a constant string and one object's toString() should be passed as a
+ * supplier, or built behind {@link #isEnabled(Level)}. The ring and its
+ * thread are only created once the first message is traced.
+ */
+public class Trace
+{
+	/** Trace levels, from least to most verbose */
+	public enum Level
+	{
+		/** Nothing is traced */
+		OFF,
+		/** Packets that are dropped or held back */
+		INFO,
+		/** Each step of handling a packet */
+		DEBUG,
+		/** Full contents of packets received and sent */
+		PACKET
+	}
+
+	/** Number of messages the ring holds */
+	public static final int RING_SIZE = 4096;
+
+	/** How long (in nanoseconds) the writer sleeps when the ring is empty */
+	private static final long IDLE_WAIT = 1000 * 1000;
+
+	/** Ordinal of the current level */
+	private static volatile int level = Level.OFF.ordinal();
+
+	/** Set once the writer has been created */
+	private static volatile boolean writerCreated;
+
+	private Trace()
+	{ }
+
+	/**
+	 * Set the level messages are traced at. Can be changed at any time.
+	 * @param newLevel most verbose level of messages to trace
+	 */
+	public static void setLevel(Level newLevel)
+	{ level = newLevel.ordinal(); }
+
+	public static Level getLevel()
+	{ return Level.values()[level]; }
+
+	/**
+	 * @param msgLevel level of a message
+	 * @return true if messages at the level are traced
+	 */
+	public static boolean isEnabled(Level msgLevel)
+	{ return msgLevel.ordinal() <= level; }
+
+	/**
+	 * Trace a message.
+	 * @param msgLevel level of the message; not OFF
+	 * @param msg the message
+	 */
+	public static void log(Level msgLevel, String msg)
+	{
+		if (isEnabled(msgLevel))
+		{ Writer.INSTANCE.offer(msg); }
+	}
+
+	/**
+	 * Trace a message made of a prefix and an object, converting the object
+	 * to a string only if the message is traced.
+	 * @param msgLevel level of the message; not OFF
+	 * @param prefix start of the message
+	 * @param obj object whose string form ends the message
+	 */
+	public static void log(Level msgLevel, String prefix, Object obj)
+	{
+		if (isEnabled(msgLevel))
+		{ Writer.INSTANCE.offer(prefix + obj); }
+	}
+
+	/**
+	 * Trace a message, building it only if it is traced.
+	 * @param msgLevel level of the message; not OFF
+	 * @param msg builds the message
+	 */
+	public static void log(Level msgLevel, Supplier<String> msg)
+	{
+		if (isEnabled(msgLevel))
+		{ Writer.INSTANCE.offer(msg.get()); }
+	}
+
+	/**
+	 * Print the messages queued so far, without waiting for the writer.
+	 */
+	public static void flush()
+	{
+		if (writerCreated)
+		{ Writer.INSTANCE.drain(); }
+	}
+
+	/**
+	 * @return number of messages dropped because the ring was full
+	 */
+	public static long getDroppedCount()
+	{ return writerCreated ? Writer.INSTANCE.dropped.get() : 0; }
+
+	/**
+	 * Ring of messages waiting to be printed, and the thread that prints
+	 * them. Any thread can add messages; only one thread at a time removes
+	 * them.
+	 */
+	private static class Writer implements Runnable
+	{
+		static final Writer INSTANCE = new Writer();
+
+		/** Messages waiting to be printed; null where a slot is free, or
+		 *  claimed but not yet filled */
+		private AtomicReferenceArray<String> slots;
+
+		private int mask;
+
+		/** Number of messages ever removed from the ring */
+		private volatile long head;
+
+		/** Number of slots ever claimed by threads adding messages */
+		private AtomicLong tail;
+
+		/** Number of messages dropped because the ring was full */
+		private AtomicLong dropped;
+
+		/** Number of dropped messages already reported */
+		private long droppedReported;
+
+		private Writer()
+		{
+			this.slots = new AtomicReferenceArray<String>(RING_SIZE);
+			this.mask = RING_SIZE - 1;
+			this.tail = new AtomicLong();
+			this.dropped = new AtomicLong();
+
+			Thread thread = new Thread(this, "trace-writer");
+			thread.setDaemon(true);
+			thread.start();
+			Runtime.getRuntime().addShutdownHook(
+					new Thread(this::drain, "trace-flush"));
+			writerCreated = true;
+		}
+
+		/**
+		 * Add a message to the ring, or drop it if the ring is full.
+		 */
+		void offer(String msg)
+		{
+			long slot;
+			do
+			{
+				slot = this.tail.get();
+				if (slot - this.head >= RING_SIZE)
+				{
+					this.dropped.incrementAndGet();
+					return;
+				}
+			} while (!this.tail.compareAndSet(slot, slot + 1));
+			this.slots.set((int)(slot & this.mask), msg);
+		}
+
+		/**
+		 * Print the messages in the ring, up to the first slot that is
+		 * claimed but not yet filled and at most one ring's worth.
+		 * @return true if anything was printed
+		 */
+		synchronized boolean drain()
+		{
+			StringBuilder out = null;
+			long next = this.head;
+			long last = next + RING_SIZE;
+			String msg;
+			while (next < last
+					&& (msg = this.slots.get((int)(next & this.mask))) != null)
+			{
+				if (null == out)
+				{ out = new StringBuilder(); }
+				out.append(msg).append('\n');
+
+				// Free the slot before the ring's head moves past it
+				this.slots.set((int)(next & this.mask), null);
+				next++;
+				this.head = next;
+			}
+
+			long droppedNow = this.dropped.get();
+			if (droppedNow != this.droppedReported)
+			{
+				if (null == out)
+				{ out = new StringBuilder(); }
+				out.append("*** ").append(droppedNow - this.droppedReported)
+						.append(" trace messages dropped\n");
+				this.droppedReported = droppedNow;
+			}
+
+			if (null == out)
+			{ return false; }
+			System.out.print(out);
+			System.out.flush();
+			return true;
+		}
+
+		public void run()
+		{
+			while (true)
+			{
+				if (!this.drain())
+				{ LockSupport.parkNanos(IDLE_WAIT); }
+			}
+		}
+	}
+}
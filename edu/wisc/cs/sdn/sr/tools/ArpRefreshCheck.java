@@ -0,0 +1,118 @@
+package edu.wisc.cs.sdn.sr.tools;
+
+import java.nio.ByteBuffer;
+
+import edu.wisc.cs.sdn.sr.ArpCache;
+import edu.wisc.cs.sdn.sr.ArpTable;
+import edu.wisc.cs.sdn.sr.Iface;
+import edu.wisc.cs.sdn.sr.Router;
+import net.floodlightcontroller.packet.ARP;
+import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.util.MACAddress;
+
+/**
+ * Checks that an ARP entry in use outlives its timeout by being refreshed
+ * with unicast ARP requests. The neighbor answers each refresh late, after
+ * the cache has sent its last refresh request before the entry expires,
+ * and is looked up continuously for two and a half timeouts; every lookup
+ * must find the entry, and no broadcast request may be sent. Takes about
+ * 40 seconds.
+ * <p>
+ * Exits with status 0 if the check passes, otherwise 1.
+ */
+public class ArpRefreshCheck
+{
+	/** IP address of the neighbor */
+	private static final int NEIGHBOR_IP = 0x0a000002;
+
+	/** MAC address of the neighbor */
+	private static final long NEIGHBOR_MAC = 0x020000000002L;
+
+	/** Time (in milliseconds) the neighbor takes to answer a request */
+	private static final int REPLY_DELAY = 2500;
+
+	/** Time (in milliseconds) between lookups of the neighbor */
+	private static final int LOOKUP_INTERVAL = 50;
+
+	private static ArpCache arpCache;
+
+	private static Iface iface;
+
+	private static int unicastRequests;
+
+	private static int broadcastRequests;
+
+	public static void main(String[] args) throws InterruptedException
+	{
+		Router router = new Router((short)0, "check", null, null)
+		{
+			public boolean sendPacket(Ethernet etherPacket, Iface outIface)
+			{
+				if (etherPacket.getEtherType() == Ethernet.TYPE_ARP)
+				{ answer(etherPacket); }
+				return true;
+			}
+		};
+		iface = router.addInterface("eth0");
+		iface.setMacAddress(0x020000000001L);
+		iface.setIpAddress(0x0a000001);
+		arpCache = new ArpCache(router);
+
+		long start = System.currentTimeMillis();
+		long end = start + ArpCache.TIMEOUT * 5 / 2;
+		arpCache.insert(NEIGHBOR_MAC, NEIGHBOR_IP, iface);
+		int lookups = 0;
+		int misses = 0;
+		while (System.currentTimeMillis() < end)
+		{
+			if (arpCache.lookup(NEIGHBOR_IP) == ArpTable.NO_MAC)
+			{ misses++; }
+			lookups++;
+			Thread.sleep(LOOKUP_INTERVAL);
+		}
+
+		boolean passed;
+		synchronized (ArpRefreshCheck.class)
+		{
+			System.out.println(String.format("%d lookups, %d misses, "
+					+ "%d unicast requests, %d broadcast requests", lookups,
+					misses, unicastRequests, broadcastRequests));
+			passed = (0 == misses && 0 == broadcastRequests
+					&& unicastRequests >= 2);
+		}
+		System.out.println(passed ? "PASS" : "FAIL");
+		System.exit(passed ? 0 : 1);
+	}
+
+	/**
+	 * Count an ARP request sent by the cache, and have the neighbor answer
+	 * it after REPLY_DELAY.
+	 */
+	private static void answer(Ethernet etherPacket)
+	{
+		ARP arpPacket = (ARP)etherPacket.getPayload();
+		if (arpPacket.getOpCode() != ARP.OP_REQUEST
+				|| ByteBuffer.wrap(arpPacket.getTargetProtocolAddress()).getInt()
+						!= NEIGHBOR_IP)
+		{ return; }
+
+		synchronized (ArpRefreshCheck.class)
+		{
+			if (etherPacket.getDestinationMACAsLong() == MACAddress.BROADCAST)
+			{ broadcastRequests++; }
+			else
+			{ unicastRequests++; }
+		}
+
+		Thread reply = new Thread(() ->
+		{
+			try
+			{ Thread.sleep(REPLY_DELAY); }
+			catch (InterruptedException e)
+			{ return; }
+			arpCache.insert(NEIGHBOR_MAC, NEIGHBOR_IP, iface);
+		});
+		reply.setDaemon(true);
+		reply.start();
+	}
+}
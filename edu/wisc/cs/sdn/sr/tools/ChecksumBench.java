@@ -0,0 +1,174 @@
+package edu.wisc.cs.sdn.sr.tools;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import net.floodlightcontroller.packet.Checksum;
+import net.floodlightcontroller.packet.Data;
+import net.floodlightcontroller.packet.ICMP;
+import net.floodlightcontroller.packet.IPacket;
+import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.packet.TCP;
+import net.floodlightcontroller.packet.UDP;
+
+/**
+ * Measures the Internet checksum. Times Checksum.compute against a loop
+ * over 16-bit words like the one each codec used to have, and times
+ * serializing UDP, TCP and ICMP packets whose checksum must be recomputed.
+ * Each time is the best of several rounds, in nanoseconds per operation.
+ * <p>
+ * Exits with status 1 if Checksum.compute and the 16-bit loop disagree on
+ * any of a set of random buffers, otherwise 0.
+ */
+public class ChecksumBench
+{
+	/** Buffer lengths (in bytes) to time the raw checksum over */
+	private static final int[] CHECKSUM_LENGTHS = { 64, 576, 1500 };
+
+	/** Payload lengths (in bytes) to time serializing packets with */
+	private static final int[] PAYLOAD_LENGTHS = { 64, 1400 };
+
+	/** Random buffers compared between the two checksums */
+	private static final int COMPARE_COUNT = 100000;
+
+	/** Operations in each timed round */
+	private static final int ROUND_OPS = 200000;
+
+	/** Timed rounds; the fastest is reported */
+	private static final int ROUNDS = 8;
+
+	/** Keeps results alive, so timed work is not optimized away */
+	private static long sink;
+
+	public static void main(String[] args)
+	{
+		Random random = new Random(1);
+
+		int mismatches = 0;
+		for (int i = 0; i < COMPARE_COUNT; i++)
+		{
+			byte[] data = new byte[random.nextInt(1501)];
+			random.nextBytes(data);
+			int offset = (0 == data.length) ? 0 : random.nextInt(data.length);
+			int length = data.length - offset;
+			if (Checksum.compute(data, offset, length)
+					!= wordChecksum(data, offset, length))
+			{ mismatches++; }
+		}
+		System.out.println(String.format("%d of %d random buffers differ",
+				mismatches, COMPARE_COUNT));
+
+		System.out.println("Raw checksum, ns (16-bit loop -> Checksum):");
+		for (int length : CHECKSUM_LENGTHS)
+		{
+			byte[] data = new byte[length];
+			random.nextBytes(data);
+			long words = best(() -> sink += wordChecksum(data, 0, length));
+			long wide = best(() -> sink += Checksum.compute(data, 0, length));
+			System.out.println(String.format("  %4d B %6.1f -> %6.1f", length,
+					words / (double)ROUND_OPS, wide / (double)ROUND_OPS));
+		}
+
+		System.out.println("serializeTo with checksum recompute, ns:");
+		ByteBuffer buffer = ByteBuffer.allocate(2048);
+		String[] names = { "UDP", "TCP", "ICMP" };
+		for (int length : PAYLOAD_LENGTHS)
+		{
+			for (int kind = 0; kind < names.length; kind++)
+			{
+				byte[] payload = new byte[length];
+				random.nextBytes(payload);
+				IPacket packet = makePacket(kind, payload);
+				long time = best(() ->
+				{
+					if (packet instanceof ICMP)
+					{ ((ICMP)packet).setChecksum((short)0); }
+					packet.resetChecksum();
+					buffer.clear();
+					packet.serializeTo(buffer);
+					sink += buffer.get(6);
+				});
+				System.out.println(String.format("  %-4s %4d B %6.1f",
+						names[kind], length, time / (double)ROUND_OPS));
+			}
+		}
+
+		System.exit((0 == mismatches) ? 0 : 1);
+	}
+
+	/**
+	 * Checksum data one 16-bit word at a time, folding the sum at the end,
+	 * as the codecs used to.
+	 */
+	private static short wordChecksum(byte[] data, int offset, int length)
+	{
+		int sum = 0;
+		int end = offset + length;
+		int i = offset;
+		for (; i + 1 < end; i += 2)
+		{ sum += ((data[i] & 0xFF) << 8) | (data[i + 1] & 0xFF); }
+		if (i < end)
+		{ sum += (data[i] & 0xFF) << 8; }
+		sum = (sum >>> 16) + (sum & 0xFFFF);
+		sum += sum >>> 16;
+		return (short)~sum;
+	}
+
+	/**
+	 * Build a transport packet carried in IPv4.
+	 * @param kind 0 for UDP, 1 for TCP, 2 for ICMP
+	 * @param payload bytes the packet carries
+	 * @return the transport packet
+	 */
+	private static IPacket makePacket(int kind, byte[] payload)
+	{
+		IPv4 ipPacket = new IPv4();
+		ipPacket.setSourceAddress(0x0a000001);
+		ipPacket.setDestinationAddress(0x0a000002);
+		ipPacket.setTtl((byte)64);
+		IPacket packet;
+		switch (kind)
+		{
+		case 0:
+			UDP udpPacket = new UDP();
+			udpPacket.setSourcePort((short)1);
+			udpPacket.setDestinationPort((short)9);
+			ipPacket.setProtocol(IPv4.PROTOCOL_UDP);
+			packet = udpPacket;
+			break;
+		case 1:
+			TCP tcpPacket = new TCP();
+			tcpPacket.setSourcePort((short)1);
+			tcpPacket.setDestinationPort((short)2);
+			ipPacket.setProtocol(IPv4.PROTOCOL_TCP);
+			packet = tcpPacket;
+			break;
+		default:
+			ICMP icmpPacket = new ICMP();
+			icmpPacket.setIcmpType((byte)8);
+			ipPacket.setProtocol(IPv4.PROTOCOL_ICMP);
+			packet = icmpPacket;
+			break;
+		}
+		packet.setPayload(new Data(payload));
+		ipPacket.setPayload(packet);
+		return packet;
+	}
+
+	/**
+	 * @return the fastest time (in nanoseconds) of ROUNDS rounds of
+	 *         ROUND_OPS runs of an operation
+	 */
+	private static long best(Runnable op)
+	{
+		long best = Long.MAX_VALUE;
+		for (int round = 0; round < ROUNDS; round++)
+		{
+			long start = System.nanoTime();
+			for (int i = 0; i < ROUND_OPS; i++)
+			{ op.run(); }
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		return best;
+	}
+}
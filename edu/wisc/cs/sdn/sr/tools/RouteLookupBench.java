@@ -0,0 +1,167 @@
+package edu.wisc.cs.sdn.sr.tools;
+
+import java.util.Random;
+
+import edu.wisc.cs.sdn.sr.RouteTable;
+import edu.wisc.cs.sdn.sr.Router;
+
+/**
+ * Measures longest prefix match lookups, one destination at a time against
+ * batches of BATCH_SIZE, both straight from a route table snapshot and
+ * through the router's route cache. Runs with the trie and with the flat
+ * table, over random destinations and over a small set of hot destinations
+ * that fit in the cache. Each time is the best of several rounds, in
+ * nanoseconds per lookup.
+ * <p>
+ * Usage: RouteLookupBench [route count]; routes are random prefixes of 8 to
+ * 32 bits, 500000 by default.
+ * <p>
+ * Exits with status 1 if a batch lookup ever disagrees with the single
+ * lookup of the same destination, otherwise 0.
+ */
+public class RouteLookupBench
+{
+	/** Routes in the table, unless given on the command line */
+	private static final int DEFAULT_ROUTE_COUNT = 500000;
+
+	/** Destinations looked up in each round */
+	private static final int DESTINATION_COUNT = 1 << 20;
+
+	/** Destinations in each batch lookup */
+	private static final int BATCH_SIZE = 64;
+
+	/** Distinct destinations in the hot set */
+	private static final int HOT_COUNT = 512;
+
+	/** Timed rounds; the fastest is reported */
+	private static final int ROUNDS = 5;
+
+	/** Keeps results alive, so timed work is not optimized away */
+	private static long sink;
+
+	private static boolean mismatch;
+
+	public static void main(String[] args)
+	{
+		int routeCount = (args.length > 0) ? Integer.parseInt(args[0])
+				: DEFAULT_ROUTE_COUNT;
+		Random random = new Random(1);
+
+		Router router = new Router((short)0, "bench", null, null);
+		RouteTable table = router.getRouteTable();
+		table.beginBatch();
+		try
+		{
+			for (int i = 0; i < routeCount; i++)
+			{
+				int length = 8 + random.nextInt(25);
+				int mask = (int)(0xFFFFFFFFL << (32 - length));
+				table.addEntry(random.nextInt() & mask, random.nextInt(),
+						mask, "eth" + random.nextInt(4), 1);
+			}
+		}
+		finally
+		{ table.endBatch(); }
+
+		int[][] randomBatches = 
+				new int[DESTINATION_COUNT / BATCH_SIZE][BATCH_SIZE];
+		int[][] hotBatches = 
+				new int[DESTINATION_COUNT / BATCH_SIZE][BATCH_SIZE];
+		int[] hotSet = new int[HOT_COUNT];
+		for (int i = 0; i < HOT_COUNT; i++)
+		{ hotSet[i] = random.nextInt(); }
+		for (int b = 0; b < randomBatches.length; b++)
+		{
+			for (int i = 0; i < BATCH_SIZE; i++)
+			{
+				randomBatches[b][i] = random.nextInt();
+				hotBatches[b][i] = hotSet[random.nextInt(HOT_COUNT)];
+			}
+		}
+
+		System.out.println(String.format("%d routes, batches of %d, "
+				+ "ns per lookup (single -> batch):", table.getSnapshot().size(),
+				BATCH_SIZE));
+		for (int flat = 0; flat < 2; flat++)
+		{
+			table.setFlatLookup(1 == flat);
+			String name = (1 == flat) ? "flat" : "trie";
+			report(name + " snapshot, random",
+					time(router, randomBatches, false, false),
+					time(router, randomBatches, true, false));
+			report(name + " router, random",
+					time(router, randomBatches, false, true),
+					time(router, randomBatches, true, true));
+			report(name + " router, hot",
+					time(router, hotBatches, false, true),
+					time(router, hotBatches, true, true));
+		}
+
+		System.out.println(mismatch ? "batch and single lookups differ"
+				: "batch and single lookups agree");
+		System.exit(mismatch ? 1 : 0);
+	}
+
+	private static void report(String name, long single, long batch)
+	{
+		System.out.println(String.format("  %-24s %7.1f -> %7.1f", name,
+				single / (double)DESTINATION_COUNT,
+				batch / (double)DESTINATION_COUNT));
+	}
+
+	/**
+	 * Look up every destination ROUNDS times, checking batch results
+	 * against single lookups in the snapshot.
+	 * @param batches destinations, grouped into batches
+	 * @param batch true to look up a batch at a time, otherwise one
+	 *        destination at a time
+	 * @param cached true to look up through the router's route cache,
+	 *        otherwise straight from the snapshot
+	 * @return the fastest time (in nanoseconds) of a round
+	 */
+	private static long time(Router router, int[][] batches, boolean batch,
+			boolean cached)
+	{
+		RouteTable.Snapshot routes = router.getRouteTable().getSnapshot();
+		int[] matches = new int[BATCH_SIZE];
+		long best = Long.MAX_VALUE;
+		for (int round = 0; round < ROUNDS; round++)
+		{
+			long start = System.nanoTime();
+			for (int[] ips : batches)
+			{
+				if (!batch)
+				{
+					for (int ip : ips)
+					{
+						sink += cached ? router.longestPrefixMatch(routes, ip)
+								: routes.lookup(ip);
+					}
+				}
+				else if (cached)
+				{ router.longestPrefixMatch(routes, ips, matches, BATCH_SIZE); }
+				else
+				{ routes.lookup(ips, matches, BATCH_SIZE); }
+				sink += matches[0];
+			}
+			best = Math.min(best, System.nanoTime() - start);
+		}
+
+		if (batch)
+		{
+			for (int[] ips : batches)
+			{
+				if (cached)
+				{ router.longestPrefixMatch(routes, ips, matches, BATCH_SIZE); }
+				else
+				{ routes.lookup(ips, matches, BATCH_SIZE); }
+				for (int i = 0; i < BATCH_SIZE; i++)
+				{
+					if (matches[i] != routes.lookup(ips[i]))
+					{ mismatch = true; }
+				}
+			}
+		}
+		return best;
+	}
+}
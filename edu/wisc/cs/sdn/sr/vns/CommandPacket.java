@@ -3,12 +3,22 @@ package edu.wisc.cs.sdn.sr.vns;
 import java.nio.ByteBuffer;
 
 import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.FrameView;
 
 public class CommandPacket extends Command
 {
+	/** Length of the interface name field */
+	public static final int INTERFACE_NAME_SIZE = 16;
+	
+	/** Length of the command header in front of the frame */
+	public static final int HEADER_SIZE = 4 + 4 + INTERFACE_NAME_SIZE;
+	
 	protected String mInterfaceName;
 	protected Ethernet etherPacket;
 	
+	/** View of the received frame, in the buffer the command was read into */
+	protected FrameView frame;
+	
 	public CommandPacket()
 	{ super(Command.VNS_PACKET); }
 	
@@ -16,38 +26,67 @@ public class CommandPacket extends Command
 	{
 		super.deserialize(buf);
 				
-		byte[] tmpBytes = new byte[16];
+		byte[] tmpBytes = new byte[INTERFACE_NAME_SIZE];
 		buf.get(tmpBytes);
 		this.mInterfaceName = new String(tmpBytes).trim();
 		
-        this.etherPacket = new Ethernet();
-		this.etherPacket.deserialize(buf.array(), buf.position(),
-				buf.capacity() - buf.position());
+		// Leave the frame in the buffer; it is only decoded if needed
+		if (null == this.frame)
+		{ this.frame = new FrameView(); }
+		this.frame.wrap(buf.array(), buf.arrayOffset() + buf.position(),
+				buf.limit() - buf.position());
 		
 		return this;
 	}
 	
 	protected int getSize()
-	{ return super.getSize() + 16; }
+	{ return super.getSize() + INTERFACE_NAME_SIZE; }
 	
 	protected byte[] serialize()
 	{
-		byte[] packet = this.etherPacket.serialize();
-		int size = this.getSize() + packet.length;
-		this.mLen = size;
-		
-		byte[] data = new byte[size];
-        ByteBuffer bb = ByteBuffer.wrap(data);
-        
-        byte[] parentData = super.serialize();
-        
-        bb.put(parentData);
-        byte[] tmp = new byte[16];
-        System.arraycopy(this.mInterfaceName.getBytes(), 0, tmp, 0, 
-                this.mInterfaceName.length());
-        bb.put(tmp);
-        bb.put(packet);
-        
-        return data;
+		byte[] data = new byte[this.getSerializedLength()];
+		this.serializeTo(ByteBuffer.wrap(data));
+		return data;
+	}
+	
+	/**
+	 * @return length of the command, including the packet
+	 */
+	protected int getSerializedLength()
+	{ return this.getSize() + this.etherPacket.getSerializedLength(); }
+	
+	/**
+	 * Write the command, and the packet it carries, into a buffer.
+	 * @param bb buffer with at least getSerializedLength() bytes remaining
+	 */
+	protected void serializeTo(ByteBuffer bb)
+	{
+		int start = bb.position();
+		bb.position(start + HEADER_SIZE);
+		this.etherPacket.serializeTo(bb);
+		int end = bb.position();
+		this.mLen = end - start;
+		bb.position(start);
+		serializeHeader(bb, end - start - HEADER_SIZE, this.mInterfaceName);
+		bb.position(end);
+	}
+	
+	/**
+	 * Write the header of a packet command into a buffer, at the buffer's
+	 * position.
+	 * @param bb buffer with at least HEADER_SIZE bytes remaining
+	 * @param frameLength length of the frame that follows the header
+	 * @param ifaceName name of the interface the frame is sent on
+	 */
+	protected static void serializeHeader(ByteBuffer bb, int frameLength, 
+			String ifaceName)
+	{
+        bb.putInt(HEADER_SIZE + frameLength);
+        bb.putInt(Command.VNS_PACKET);
+        for (int i = 0; i < INTERFACE_NAME_SIZE; i++)
+        {
+        	bb.put((i < ifaceName.length()) ? (byte)ifaceName.charAt(i) 
+        			: (byte)0);
+        }
 	}
 }
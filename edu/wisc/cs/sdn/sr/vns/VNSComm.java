@@ -16,18 +16,53 @@ import java.security.NoSuchAlgorithmException;
 
 import net.floodlightcontroller.packet.ARP;
 import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.FrameView;
 import net.floodlightcontroller.util.MACAddress;
+import net.floodlightcontroller.util.ObjectPool;
 
 import edu.wisc.cs.sdn.sr.Router;
 import edu.wisc.cs.sdn.sr.Iface;
 
 public class VNSComm 
 {
+	/** Longest command accepted from the server */
+	public static final int MAX_COMMAND_LENGTH = 10000;
+	
 	private Socket socket;
 	private Router router;
 	
+	/** Buffer packets are serialized into to be sent, grown as needed */
+	private ByteBuffer sendBuffer;
+	
+	/** Guards the send buffer, and keeps writes to the socket and records
+	 *  in the packet log from interleaving */
+	private final Object sendLock = new Object();
+	
+	/** Buffers commands are read into; null if buffers are not pooled */
+	private ObjectPool<byte[]> bufferPool;
+	
+	/** Command received packets are decoded into; null if not reused */
+	private CommandPacket recvPacket;
+	
 	public VNSComm(Router router)
-	{ this.router = router; }
+	{ 
+		this.router = router;
+		this.sendBuffer = ByteBuffer.allocate(16 * 1024);
+	}
+	
+	/**
+	 * Recycle the buffers commands are read into, instead of allocating one
+	 * for each command. A buffer goes back to the pool once its command has
+	 * been handled, including any frame sent straight from it.
+	 * @param capacity most buffers kept for reuse
+	 * @param detectLeaks true to report buffers that are released twice
+	 */
+	public void setPooling(int capacity, boolean detectLeaks)
+	{
+		this.bufferPool = new ObjectPool<byte[]>(
+				() -> new byte[MAX_COMMAND_LENGTH], capacity, detectLeaks);
+		this.recvPacket = new CommandPacket();
+	}
 	
 	public boolean connectToServer(short port, String server)
 	{
@@ -126,7 +161,7 @@ public class VNSComm
 				lastIface.setIpAddress(ByteBuffer.wrap(hwEntry.value).getInt());
 				break;
 			case CommandHwEntry.HW_ETHER:
-				lastIface.setMacAddress(new MACAddress(hwEntry.value));
+				lastIface.setMacAddress(new MACAddress(hwEntry.value).toLong());
 				break;
 			default:
 				System.out.println(String.format(" %d", hwEntry.mKey));
@@ -268,7 +303,7 @@ public class VNSComm
 		
 		int len = ByteBuffer.wrap(lenBytes).getInt();
 		
-		if (len > 10000 || len < 0)
+		if (len > MAX_COMMAND_LENGTH || len < 0)
 		{
 			System.err.println(String.format(
 					"Error: comamnd length too large %d", len));
@@ -276,11 +311,35 @@ public class VNSComm
 			return false;
 		}
 		
-		// Allocate buffer
-		ByteBuffer buf = ByteBuffer.allocate(len);
+		// Allocate buffer, or take one from the pool
+		byte[] bytes = (null == this.bufferPool) ? new byte[len] 
+				: this.bufferPool.acquire();
+		try
+		{ return this.readCommand(inStream, ByteBuffer.wrap(bytes, 0, len), 
+				expectedCmd); }
+		finally
+		{
+			// The command has been handled; nothing refers to the buffer
+			if (this.bufferPool != null)
+			{ this.bufferPool.release(bytes); }
+		}
+	}
+	
+	/**
+	 * Read the rest of a command, after its length, and handle it.
+	 * @param inStream stream to read the command from
+	 * @param buf buffer to read the command into, limited to its length
+	 * @param expectedCmd the command expected; 0 to accept any command
+	 * @return false if the command could not be read or handled
+	 */
+	private boolean readCommand(InputStream inStream, ByteBuffer buf, 
+			int expectedCmd)
+	{
+		int len = buf.limit();
 		
 		// Set first field of command since we've already read it
 		buf.putInt(len);
+		int bytesRead = buf.position();
 		
 		// Read the rest of the command
 		while (bytesRead < len)
@@ -318,20 +377,28 @@ public class VNSComm
 		switch(command)
 		{
 		case Command.VNS_PACKET:
-			CommandPacket cmdPkt = new CommandPacket();
+			CommandPacket cmdPkt = (null == this.recvPacket) 
+					? new CommandPacket() : this.recvPacket;
 			cmdPkt.deserialize(buf);
 			
+			FrameView frame = cmdPkt.frame;
+			
 			// Check if it is an ARP to another router if so drop
-			if (this.arpRequestNotForUs(cmdPkt.etherPacket, 
-					cmdPkt.mInterfaceName))
+			if (this.arpRequestNotForUs(frame, cmdPkt.mInterfaceName))
 			{ break; }
 			
 			// Log packet
-            if (this.router.getLogFile() != null)
-            { this.router.getLogFile().dump(cmdPkt.etherPacket); }
+			if (this.router.getLogFile() != null)
+			{
+				synchronized (this.sendLock)
+				{
+					this.router.getLogFile().dump(frame.getData(), 
+							frame.getOffset(), frame.getLength());
+				}
+			}
 			
 			// Pass to router, student's code should take over here
-			this.router.handlePacket(cmdPkt.etherPacket, 
+			this.router.handlePacket(frame, 
 					this.router.getInterface(cmdPkt.mInterfaceName));
 			break;
 			
@@ -390,18 +457,17 @@ public class VNSComm
 	}
 	
 	// sr_arp_req_not_for_us
-	private boolean arpRequestNotForUs(Ethernet etherPacket, String ifaceName)
+	private boolean arpRequestNotForUs(FrameView frame, String ifaceName)
 	{
 		// Check if it's an ARP packet
-		if (etherPacket.getEtherType() != Ethernet.TYPE_ARP)
+		if (!frame.isArp())
 		{ return false; }
 		
 		Iface iface = this.router.getInterface(ifaceName);
-		ARP arpPacket = (ARP)etherPacket.getPayload();
-		int targetIp = ByteBuffer.wrap(arpPacket.getTargetProtocolAddress()).getInt();
+		int targetIp = frame.getArpTargetProtocolAddress();
 		
 		// Check if it's a request and we are not the target
-		if ((arpPacket.getOpCode() == ARP.OP_REQUEST)
+		if ((frame.getArpOpCode() == ARP.OP_REQUEST)
 			&& (targetIp != iface.getIpAddress()))
 		{ return true; }
 		
@@ -419,7 +485,28 @@ public class VNSComm
 					+ ", does not exist");
 			return false;
 		}
-		if (!iface.getMacAddress().equals(etherPacket.getSourceMAC()))
+		if (iface.getMacAddress() != etherPacket.getSourceMACAsLong())
+		{
+			System.err.println("** Error, source address does not match interface"); 
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Check that the source MAC address of a frame matches the interface the
+	 * frame is sent on.
+	 */
+	public boolean etherAddrsMatchInterface(FrameView frame, String ifaceName)
+	{
+		Iface iface = this.router.getInterface(ifaceName);
+		if (null == iface)
+		{
+			System.err.println("** Error, interface " + ifaceName 
+					+ ", does not exist");
+			return false;
+		}
+		if (iface.getMacAddress() != frame.getSourceMAC())
 		{
 			System.err.println("** Error, source address does not match interface"); 
 			return false;
@@ -434,29 +521,96 @@ public class VNSComm
 		cmdPacket.mInterfaceName = ifaceName;
 		cmdPacket.etherPacket = etherPacket;
 		
-		byte[] buf = cmdPacket.serialize();
-		
 		if (!etherAddrsMatchInterface(etherPacket, ifaceName))
 		{
 			System.err.println("*** Error: problem with ethernet header, check log");
 			return false;
 		}
 		
-		// Log packet
-        if (this.router.getLogFile() != null)
-        { this.router.getLogFile().dump(etherPacket); }
-		
-	    try
+		synchronized (this.sendLock)
 		{
-			OutputStream outStream = socket.getOutputStream();
-			outStream.write(buf);
-            outStream.flush();
+			// Serialize the command, and all layers of the frame, straight 
+			// into the send buffer
+			int length = cmdPacket.getSerializedLength();
+			if (length > this.sendBuffer.capacity())
+			{ this.sendBuffer = ByteBuffer.allocate(length); }
+			ByteBuffer bb = this.sendBuffer;
+			bb.clear();
+			cmdPacket.serializeTo(bb);
+			byte[] buf = bb.array();
+			
+			// Log packet
+			if (this.router.getLogFile() != null)
+			{ 
+				this.router.getLogFile().dump(buf, CommandPacket.HEADER_SIZE, 
+						bb.position() - CommandPacket.HEADER_SIZE); 
+			}
+			
+			try
+			{
+				OutputStream outStream = socket.getOutputStream();
+				outStream.write(buf, 0, bb.position());
+				outStream.flush();
+			}
+			catch(IOException e)
+			{
+				System.err.println("Error writing packet");
+				return false;
+			}
 		}
-		catch(IOException e)
+		return true;
+	}
+	
+	/**
+	 * Send a frame straight from its bytes. When the frame has room in front
+	 * of it for the command header, as frames received from the server do,
+	 * the header is written there, overwriting whatever those bytes held,
+	 * and the frame is sent without being copied.
+	 * @param frame the frame to send
+	 * @param ifaceName name of the interface to send the frame on
+	 * @return true if the frame was sent successfully, otherwise false
+	 */
+	public boolean sendPacket(FrameView frame, String ifaceName)
+	{
+		if (!etherAddrsMatchInterface(frame, ifaceName))
 		{
-			System.err.println("Error writing packet");
+			System.err.println("*** Error: problem with ethernet header, check log");
 			return false;
 		}
+		
+		byte[] buf = frame.getData();
+		int offset = frame.getOffset();
+		int len = frame.getLength();
+		if (offset < CommandPacket.HEADER_SIZE)
+		{
+			buf = new byte[CommandPacket.HEADER_SIZE + len];
+			System.arraycopy(frame.getData(), offset, buf, 
+					CommandPacket.HEADER_SIZE, len);
+			offset = CommandPacket.HEADER_SIZE;
+		}
+		int start = offset - CommandPacket.HEADER_SIZE;
+		CommandPacket.serializeHeader(
+				ByteBuffer.wrap(buf, start, CommandPacket.HEADER_SIZE), len, 
+				ifaceName);
+		
+		synchronized (this.sendLock)
+		{
+			// Log packet
+			if (this.router.getLogFile() != null)
+			{ this.router.getLogFile().dump(buf, offset, len); }
+			
+			try
+			{
+				OutputStream outStream = socket.getOutputStream();
+				outStream.write(buf, start, CommandPacket.HEADER_SIZE + len);
+				outStream.flush();
+			}
+			catch(IOException e)
+			{
+				System.err.println("Error writing packet");
+				return false;
+			}
+		}
 		return true;
 	}
 }
@@ -56,6 +56,7 @@ public class ARP extends BasePacket {
      */
     public ARP setHardwareType(short hardwareType) {
         this.hardwareType = hardwareType;
+        invalidate();
         return this;
     }
 
@@ -71,6 +72,7 @@ public class ARP extends BasePacket {
      */
     public ARP setProtocolType(short protocolType) {
         this.protocolType = protocolType;
+        invalidate();
         return this;
     }
 
@@ -86,6 +88,7 @@ public class ARP extends BasePacket {
      */
     public ARP setHardwareAddressLength(byte hardwareAddressLength) {
         this.hardwareAddressLength = hardwareAddressLength;
+        invalidate();
         return this;
     }
 
@@ -101,6 +104,7 @@ public class ARP extends BasePacket {
      */
     public ARP setProtocolAddressLength(byte protocolAddressLength) {
         this.protocolAddressLength = protocolAddressLength;
+        invalidate();
         return this;
     }
 
@@ -116,6 +120,7 @@ public class ARP extends BasePacket {
      */
     public ARP setOpCode(short opCode) {
         this.opCode = opCode;
+        invalidate();
         return this;
     }
 
@@ -131,6 +136,7 @@ public class ARP extends BasePacket {
      */
     public ARP setSenderHardwareAddress(byte[] senderHardwareAddress) {
         this.senderHardwareAddress = senderHardwareAddress;
+        invalidate();
         return this;
     }
 
@@ -146,11 +152,13 @@ public class ARP extends BasePacket {
      */
     public ARP setSenderProtocolAddress(byte[] senderProtocolAddress) {
         this.senderProtocolAddress = senderProtocolAddress;
+        invalidate();
         return this;
     }
     
     public ARP setSenderProtocolAddress(int address) {
         this.senderProtocolAddress = ByteBuffer.allocate(4).putInt(address).array();
+        invalidate();
         return this;
     }
 
@@ -166,6 +174,7 @@ public class ARP extends BasePacket {
      */
     public ARP setTargetHardwareAddress(byte[] targetHardwareAddress) {
         this.targetHardwareAddress = targetHardwareAddress;
+        invalidate();
         return this;
     }
 
@@ -198,20 +207,36 @@ public class ARP extends BasePacket {
      */
     public ARP setTargetProtocolAddress(byte[] targetProtocolAddress) {
         this.targetProtocolAddress = targetProtocolAddress;
+        invalidate();
         return this;
     }
     
     public ARP setTargetProtocolAddress(int address) {
         this.targetProtocolAddress = ByteBuffer.allocate(4).putInt(address).array();
+        invalidate();
         return this;
     }
 
     @Override
     public byte[] serialize() {
-        int length = 8 + (2 * (0xff & this.hardwareAddressLength))
+        return serializeToArray();
+    }
+
+    @Override
+    protected boolean tracksChanges() {
+        return true;
+    }
+
+    @Override
+    public int getSerializedLength() {
+        return 8 + (2 * (0xff & this.hardwareAddressLength))
                 + (2 * (0xff & this.protocolAddressLength));
-        byte[] data = new byte[length];
-        ByteBuffer bb = ByteBuffer.wrap(data);
+    }
+
+    @Override
+    public void serializeTo(ByteBuffer bb) {
+        if (putSerialized(bb))
+            return;
         bb.putShort(this.hardwareType);
         bb.putShort(this.protocolType);
         bb.put(this.hardwareAddressLength);
@@ -221,11 +246,11 @@ public class ARP extends BasePacket {
         bb.put(this.senderProtocolAddress, 0, 0xff & this.protocolAddressLength);
         bb.put(this.targetHardwareAddress, 0, 0xff & this.hardwareAddressLength);
         bb.put(this.targetProtocolAddress, 0, 0xff & this.protocolAddressLength);
-        return data;
     }
 
     @Override
     public IPacket deserialize(byte[] data, int offset, int length) {
+        invalidate();
         ByteBuffer bb = ByteBuffer.wrap(data, offset, length);
         this.hardwareType = bb.getShort();
         this.protocolType = bb.getShort();
@@ -313,4 +338,18 @@ public class ARP extends BasePacket {
                 + ", targetProtocolAddress="
                 + Arrays.toString(targetProtocolAddress) + "]";
     }
+
+    @Override
+    public Object clone() {
+        ARP pkt = (ARP) super.clone();
+        pkt.senderHardwareAddress = (senderHardwareAddress == null) ? null
+                : senderHardwareAddress.clone();
+        pkt.senderProtocolAddress = (senderProtocolAddress == null) ? null
+                : senderProtocolAddress.clone();
+        pkt.targetHardwareAddress = (targetHardwareAddress == null) ? null
+                : targetHardwareAddress.clone();
+        pkt.targetProtocolAddress = (targetProtocolAddress == null) ? null
+                : targetProtocolAddress.clone();
+        return pkt;
+    }
 }
@@ -135,4 +135,12 @@ public class BPDU extends BasePacket {
     public long getDestMac() {
         return destMac;
     }
+
+    @Override
+    public Object clone() {
+        BPDU pkt = (BPDU) super.clone();
+        pkt.rootBridgeId = (rootBridgeId == null) ? null : rootBridgeId.clone();
+        pkt.llcHeader = (llcHeader == null) ? null : (LLC) llcHeader.clone();
+        return pkt;
+    }
 }
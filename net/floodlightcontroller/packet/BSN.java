@@ -20,8 +20,6 @@
 package net.floodlightcontroller.packet;
 
 import java.nio.ByteBuffer;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  * @author Shudong Zhou (shudong.zhou@bigswitch.com)
@@ -32,12 +30,12 @@ public class BSN extends BasePacket {
 	public static final short BSN_VERSION_CURRENT = 0x0;
 	public static final short BSN_TYPE_PROBE = 0x1;
 	public static final short BSN_TYPE_BDDP  = 0x2;
-	public static Map<Short, Class<? extends IPacket>> typeClassMap;
+	/** Payload factories by BSN packet type */
+	public static final PayloadRegistry typeRegistry = new PayloadRegistry(16);
 	
     static {
-        typeClassMap = new HashMap<Short, Class<? extends IPacket>>();
-        typeClassMap.put(BSN_TYPE_PROBE, BSNPROBE.class);
-        typeClassMap.put(BSN_TYPE_BDDP, LLDP.class);
+        typeRegistry.register(BSN_TYPE_PROBE, BSNPROBE::new);
+        typeRegistry.register(BSN_TYPE_BDDP, LLDP::new);
     }
 
 	protected short type;
@@ -112,17 +110,9 @@ public class BSN extends BasePacket {
         	        + BSN_VERSION_CURRENT);
         }
         
-        IPacket payload;
-        if (typeClassMap.containsKey(this.type)) {
-            Class<? extends IPacket> clazz = typeClassMap.get(this.type);
-            try {
-                payload = clazz.newInstance();
-            } catch (Exception e) {
-                throw new RuntimeException("Error parsing payload for BSN packet" + e);
-            }
-        } else {
+        IPacket payload = typeRegistry.newPacket(this.type);
+        if (payload == null)
             payload = new Data();
-        }
         
         this.payload = new Data();
         this.payload = payload.deserialize(data, bb.position(), bb.limit() - bb.position());
@@ -162,8 +152,8 @@ public class BSN extends BasePacket {
     public String toString() {
     	StringBuffer sb = new StringBuffer("\n");
     	sb.append("BSN packet");
-        if (typeClassMap.containsKey(this.type))
-        	sb.append(" type: " + typeClassMap.get(this.type).getCanonicalName());
+        if (typeRegistry.contains(this.type))
+        	sb.append(" type: " + typeRegistry.newPacket(this.type).getClass().getCanonicalName());
         else
         	sb.append(" type: " + this.type);
         
@@ -194,4 +194,12 @@ public class BSNPROBE extends BasePacket {
     	
     	return sb.toString();
     }
+
+    @Override
+    public Object clone() {
+        BSNPROBE pkt = (BSNPROBE) super.clone();
+        pkt.srcMac = (srcMac == null) ? null : srcMac.clone();
+        pkt.dstMac = (dstMac == null) ? null : dstMac.clone();
+        return pkt;
+    }
 }
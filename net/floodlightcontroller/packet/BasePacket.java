@@ -17,15 +17,21 @@
 
 package net.floodlightcontroller.packet;
 
+import java.nio.ByteBuffer;
+
 
 /**
 *
 * @author David Erickson (daviderickson@cs.stanford.edu)
 */
-public abstract class BasePacket implements IPacket {
+public abstract class BasePacket implements IPacket, Cloneable {
     protected IPacket parent;
     protected IPacket payload;
 
+    /** Serialized form of this packet and its payloads, kept by
+     *  serializeToArray() until a field changes; null if not cached */
+    protected byte[] serialized;
+
     /**
      * @return the parent
      */
@@ -57,11 +63,91 @@ public abstract class BasePacket implements IPacket {
     @Override
     public IPacket setPayload(IPacket payload) {
         this.payload = payload;
+        invalidate();
         return this;
     }
+
+    @Override
+    public void invalidate() {
+        this.serialized = null;
+        if (this.parent != null)
+            this.parent.invalidate();
+    }
+
+    /**
+     * @return true if every setter of this packet calls invalidate(), so
+     *         its serialized form can be cached; false by default
+     */
+    protected boolean tracksChanges() {
+        return false;
+    }
+
+    /**
+     * @return true if this packet and all its payloads track changes
+     */
+    private boolean isCacheable() {
+        BasePacket pkt = this;
+        while (pkt.tracksChanges()) {
+            if (null == pkt.payload)
+                return true;
+            if (!(pkt.payload instanceof BasePacket))
+                return false;
+            pkt = (BasePacket) pkt.payload;
+        }
+        return false;
+    }
     
+    /**
+     * Computes the length by serializing the packet; packets that can
+     * compute it directly override this.
+     */
+    @Override
+    public int getSerializedLength() {
+        return serialize().length;
+    }
+
+    /**
+     * Copies the output of serialize() into the buffer; packets that can
+     * write themselves straight into the buffer override this, and
+     * implement serialize() with serializeToArray().
+     */
+    @Override
+    public void serializeTo(ByteBuffer bb) {
+        bb.put(serialize());
+    }
+
+    /**
+     * Serializes the packet through serializeTo(ByteBuffer), into a single
+     * array of the right length. When the packet and all its payloads track
+     * changes, the array is kept and returned again until a field changes;
+     * callers must not modify it.
+     * @return the serialized packet
+     */
+    protected byte[] serializeToArray() {
+        if (this.serialized != null)
+            return this.serialized;
+        byte[] data = new byte[getSerializedLength()];
+        serializeTo(ByteBuffer.wrap(data));
+        if (isCacheable())
+            this.serialized = data;
+        return data;
+    }
+
+    /**
+     * Writes the cached serialized form of the packet into the buffer, if
+     * there is one; packets that cache it call this first in serializeTo.
+     * @return true if the cached form was written
+     */
+    protected boolean putSerialized(ByteBuffer bb) {
+        if (null == this.serialized)
+            return false;
+        bb.put(this.serialized);
+        return true;
+    }
+
     @Override
     public void resetChecksum() {
+        this.serialized = null;
         if (this.parent != null)
             this.parent.resetChecksum();
     }
@@ -97,20 +183,23 @@ public abstract class BasePacket implements IPacket {
         return true;
     }
     
+    /**
+     * Copies the packet field by field. The copy has the same parent as this
+     * packet, and a copy of its payload. Subclasses that hold arrays or other
+     * mutable objects copy them as well.
+     */
     @Override
     public Object clone() {
-        IPacket pkt;
+        BasePacket pkt;
         try {
-            pkt = this.getClass().newInstance();
-        } catch (Exception e) {
-            throw new RuntimeException("Could not clone packet");
+            pkt = (BasePacket) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException("Could not clone packet", e);
+        }
+        if (this.payload != null) {
+            pkt.payload = (IPacket) this.payload.clone();
+            pkt.payload.setParent(pkt);
         }
-        // TODO: we are using serialize()/deserialize() to perform the 
-        // cloning. Not the most efficient way but simple. We can revisit
-        // if we hit performance problems.
-        byte[] data = this.serialize();
-        pkt.deserialize(this.serialize(), 0, data.length);
-        pkt.setParent(this.parent);
         return pkt;
     }
 }
\ No newline at end of file
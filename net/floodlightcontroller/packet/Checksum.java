@@ -0,0 +1,148 @@
+package net.floodlightcontroller.packet;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The Internet checksum (RFC 1071): the ones' complement of the ones'
+ * complement sum of the 16-bit words of the data, shared by IPv4, UDP, TCP
+ * and ICMP.
+ * <p>
+ * Sums are built up with the add methods and finished with {@link #finish}.
+ * They are kept in a long and folded to 16 bits only at the end, so data is
+ * summed 64 bits at a time: because 2^16 is 1 modulo 2^16 - 1, adding the two
+ * 32-bit halves of each big-endian long gives the same folded sum as adding
+ * its four 16-bit words.
+ */
+public class Checksum {
+    private static final VarHandle LONG_BE = MethodHandles.byteArrayViewVarHandle(
+            long[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle INT_BE = MethodHandles.byteArrayViewVarHandle(
+            int[].class, ByteOrder.BIG_ENDIAN);
+
+    private Checksum() {
+    }
+
+    /**
+     * Add data to a sum. An odd last byte is padded with a zero byte.
+     * @param sum sum so far; 0 to start a new one
+     * @param data bytes to add
+     * @param offset index of the first byte to add
+     * @param length number of bytes to add
+     * @return the new sum, not folded
+     */
+    public static long add(long sum, byte[] data, int offset, int length) {
+        int end = offset + length;
+        int i = offset;
+        for (; i + 8 <= end; i += 8) {
+            long word = (long) LONG_BE.get(data, i);
+            sum += (word >>> 32) + (word & 0xffffffffL);
+        }
+        if (i + 4 <= end) {
+            sum += (int) INT_BE.get(data, i) & 0xffffffffL;
+            i += 4;
+        }
+        if (i + 2 <= end) {
+            sum += ((data[i] & 0xff) << 8) | (data[i + 1] & 0xff);
+            i += 2;
+        }
+        if (i < end)
+            sum += (data[i] & 0xff) << 8;
+        return sum;
+    }
+
+    /**
+     * Add data in a buffer to a sum, without moving the buffer's position.
+     * An odd last byte is padded with a zero byte.
+     * @param sum sum so far; 0 to start a new one
+     * @param bb big-endian buffer holding the bytes to add
+     * @param index index in the buffer of the first byte to add
+     * @param length number of bytes to add
+     * @return the new sum, not folded
+     */
+    public static long add(long sum, ByteBuffer bb, int index, int length) {
+        if (bb.hasArray())
+            return add(sum, bb.array(), bb.arrayOffset() + index, length);
+        int end = index + length;
+        int i = index;
+        for (; i + 8 <= end; i += 8) {
+            long word = bb.getLong(i);
+            sum += (word >>> 32) + (word & 0xffffffffL);
+        }
+        for (; i + 2 <= end; i += 2)
+            sum += bb.getShort(i) & 0xffff;
+        if (i < end)
+            sum += (bb.get(i) & 0xff) << 8;
+        return sum;
+    }
+
+    /**
+     * Add the IPv4 pseudo-header UDP and TCP checksums cover to a sum.
+     * @param sum sum so far; 0 to start a new one
+     * @param sourceAddress IPv4 source address
+     * @param destinationAddress IPv4 destination address
+     * @param protocol IPv4 protocol
+     * @param length length of the UDP or TCP header and data
+     * @return the new sum, not folded
+     */
+    public static long addPseudoHeader(long sum, int sourceAddress,
+            int destinationAddress, byte protocol, int length) {
+        return sum + (sourceAddress & 0xffffffffL)
+                + (destinationAddress & 0xffffffffL)
+                + (protocol & 0xff) + (length & 0xffff);
+    }
+
+    /**
+     * Fold a sum to 16 bits, adding the carries back in.
+     * @param sum a sum from the add methods
+     * @return the ones' complement sum, in the low 16 bits
+     */
+    public static int fold(long sum) {
+        while ((sum >>> 16) != 0)
+            sum = (sum & 0xffff) + (sum >>> 16);
+        return (int) sum;
+    }
+
+    /**
+     * @param sum a sum from the add methods
+     * @return the checksum for the sum
+     */
+    public static short finish(long sum) {
+        return (short) ~fold(sum);
+    }
+
+    /**
+     * @param data bytes to checksum
+     * @param offset index of the first byte
+     * @param length number of bytes
+     * @return the checksum of the bytes
+     */
+    public static short compute(byte[] data, int offset, int length) {
+        return finish(add(0, data, offset, length));
+    }
+
+    /**
+     * @param data bytes that include their checksum
+     * @param offset index of the first byte
+     * @param length number of bytes
+     * @return true if the checksum in the bytes is correct
+     */
+    public static boolean isValid(byte[] data, int offset, int length) {
+        return 0xffff == fold(add(0, data, offset, length));
+    }
+
+    /**
+     * Update a checksum for a change to one 16-bit word of the data it
+     * covers, using HC' = ~(~HC + ~m + m') from RFC 1624.
+     * @param checksum the checksum before the change
+     * @param oldWord the word before the change
+     * @param newWord the word after the change
+     * @return the checksum after the change
+     */
+    public static short update(short checksum, int oldWord, int newWord) {
+        return finish((~checksum & 0xffff) + (~oldWord & 0xffff)
+                + (newWord & 0xffff));
+    }
+}
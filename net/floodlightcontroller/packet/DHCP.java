@@ -514,4 +514,17 @@ public class DHCP extends BasePacket {
         }
         return result;
     }
+
+    @Override
+    public Object clone() {
+        DHCP pkt = (DHCP) super.clone();
+        pkt.clientHardwareAddress = (clientHardwareAddress == null) ? null
+                : clientHardwareAddress.clone();
+        if (options != null) {
+            pkt.options = new ArrayList<DHCPOption>(options.size());
+            for (DHCPOption option : options)
+                pkt.options.add(option.clone());
+        }
+        return pkt;
+    }
 }
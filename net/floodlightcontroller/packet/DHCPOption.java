@@ -23,7 +23,7 @@ import java.util.Arrays;
  *
  * @author David Erickson (daviderickson@cs.stanford.edu)
  */
-public class DHCPOption {
+public class DHCPOption implements Cloneable {
     protected byte code;
     protected byte length;
     protected byte[] data;
@@ -115,4 +115,15 @@ public class DHCPOption {
         return "DHCPOption [code=" + code + ", length=" + length + ", data="
                 + Arrays.toString(data) + "]";
     }
+
+    @Override
+    public DHCPOption clone() {
+        try {
+            DHCPOption copy = (DHCPOption) super.clone();
+            copy.data = (data == null) ? null : data.clone();
+            return copy;
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException("Could not clone DHCPOption", e);
+        }
+    }
 }
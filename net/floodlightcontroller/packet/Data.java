@@ -17,6 +17,7 @@
 
 package net.floodlightcontroller.packet;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
@@ -51,6 +52,7 @@ public class Data extends BasePacket {
      */
     public Data setData(byte[] data) {
         this.data = data;
+        invalidate();
         return this;
     }
 
@@ -58,9 +60,26 @@ public class Data extends BasePacket {
         return this.data;
     }
 
+    @Override
+    protected boolean tracksChanges() {
+        return true;
+    }
+
+    @Override
+    public int getSerializedLength() {
+        return (this.data == null) ? 0 : this.data.length;
+    }
+
+    @Override
+    public void serializeTo(ByteBuffer bb) {
+        if (this.data != null)
+            bb.put(this.data);
+    }
+
     @Override
     public IPacket deserialize(byte[] data, int offset, int length) {
-        this.data = Arrays.copyOfRange(data, offset, data.length);
+        invalidate();
+        this.data = Arrays.copyOfRange(data, offset, offset + length);
         return this;
     }
 
@@ -91,4 +110,11 @@ public class Data extends BasePacket {
             return false;
         return true;
     }
+
+    @Override
+    public Object clone() {
+        Data pkt = (Data) super.clone();
+        pkt.data = (data == null) ? null : data.clone();
+        return pkt;
+    }
 }
@@ -19,8 +19,6 @@ package net.floodlightcontroller.packet;
 
 import java.nio.ByteBuffer;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
 
 import net.floodlightcontroller.util.MACAddress;
 import org.openflow.util.HexString;
@@ -38,19 +36,20 @@ public class Ethernet extends BasePacket {
     public static final short TYPE_BSN = (short) 0x8942;
     public static final short VLAN_UNTAGGED = (short)0xffff;
     public static final short DATALAYER_ADDRESS_LENGTH = 6; // bytes
-    public static Map<Short, Class<? extends IPacket>> etherTypeClassMap;
+    /** Payload factories by ether type */
+    public static final PayloadRegistry etherTypeRegistry = new PayloadRegistry(16);
 
     static {
-        etherTypeClassMap = new HashMap<Short, Class<? extends IPacket>>();
-        etherTypeClassMap.put(TYPE_ARP, ARP.class);
-        etherTypeClassMap.put(TYPE_RARP, ARP.class);
-        etherTypeClassMap.put(TYPE_IPv4, IPv4.class);
-        etherTypeClassMap.put(TYPE_LLDP, LLDP.class);
-        etherTypeClassMap.put(TYPE_BSN, BSN.class);
+        etherTypeRegistry.register(TYPE_ARP, ARP::new);
+        etherTypeRegistry.register(TYPE_RARP, ARP::new);
+        etherTypeRegistry.register(TYPE_IPv4, IPv4::new);
+        etherTypeRegistry.register(TYPE_LLDP, LLDP::new);
+        etherTypeRegistry.register(TYPE_BSN, BSN::new);
     }
 
-    protected MACAddress destinationMACAddress;
-    protected MACAddress sourceMACAddress;
+    /** MAC addresses in the lower 48 bits */
+    protected long destinationMACAddress;
+    protected long sourceMACAddress;
     protected byte priorityCode;
     protected short vlanID;
     protected short etherType;
@@ -68,13 +67,20 @@ public class Ethernet extends BasePacket {
      * @return the destination MAC as a byte array
      */
     public byte[] getDestinationMACAddress() {
-        return destinationMACAddress.toBytes();
+        return MACAddress.toBytes(destinationMACAddress);
     }
     
     /**
      * @return the destination MAC
      */
     public MACAddress getDestinationMAC() {
+        return MACAddress.valueOf(destinationMACAddress);
+    }
+
+    /**
+     * @return the destination MAC in the lower 48 bits of a long
+     */
+    public long getDestinationMACAsLong() {
         return destinationMACAddress;
     }
 
@@ -82,15 +88,25 @@ public class Ethernet extends BasePacket {
      * @param destinationMACAddress the destination MAC to set
      */
     public Ethernet setDestinationMACAddress(byte[] destinationMACAddress) {
-        this.destinationMACAddress = MACAddress.valueOf(destinationMACAddress);
-        return this;
+        return setDestinationMACAddress(
+                MACAddress.valueOf(destinationMACAddress).toLong());
     }
 
     /**
      * @param destinationMACAddress the destination MAC to set
      */
     public Ethernet setDestinationMACAddress(String destinationMACAddress) {
-        this.destinationMACAddress = MACAddress.valueOf(destinationMACAddress);
+        return setDestinationMACAddress(
+                MACAddress.valueOf(destinationMACAddress).toLong());
+    }
+
+    /**
+     * @param destinationMACAddress the destination MAC to set, in the lower
+     *        48 bits
+     */
+    public Ethernet setDestinationMACAddress(long destinationMACAddress) {
+        this.destinationMACAddress = destinationMACAddress & MACAddress.BROADCAST;
+        invalidate();
         return this;
     }
 
@@ -98,13 +114,20 @@ public class Ethernet extends BasePacket {
      * @return the source MACAddress as a byte array
      */
     public byte[] getSourceMACAddress() {
-        return sourceMACAddress.toBytes();
+        return MACAddress.toBytes(sourceMACAddress);
     }
     
     /**
      * @return the source MACAddress
      */
     public MACAddress getSourceMAC() {
+        return MACAddress.valueOf(sourceMACAddress);
+    }
+
+    /**
+     * @return the source MAC in the lower 48 bits of a long
+     */
+    public long getSourceMACAsLong() {
         return sourceMACAddress;
     }
 
@@ -112,15 +135,24 @@ public class Ethernet extends BasePacket {
      * @param sourceMACAddress the source MAC to set
      */
     public Ethernet setSourceMACAddress(byte[] sourceMACAddress) {
-        this.sourceMACAddress = MACAddress.valueOf(sourceMACAddress);
-        return this;
+        return setSourceMACAddress(
+                MACAddress.valueOf(sourceMACAddress).toLong());
     }
 
     /**
      * @param sourceMACAddress the source MAC to set
      */
     public Ethernet setSourceMACAddress(String sourceMACAddress) {
-        this.sourceMACAddress = MACAddress.valueOf(sourceMACAddress);
+        return setSourceMACAddress(
+                MACAddress.valueOf(sourceMACAddress).toLong());
+    }
+
+    /**
+     * @param sourceMACAddress the source MAC to set, in the lower 48 bits
+     */
+    public Ethernet setSourceMACAddress(long sourceMACAddress) {
+        this.sourceMACAddress = sourceMACAddress & MACAddress.BROADCAST;
+        invalidate();
         return this;
     }
 
@@ -136,6 +168,7 @@ public class Ethernet extends BasePacket {
      */
     public Ethernet setPriorityCode(byte priorityCode) {
         this.priorityCode = priorityCode;
+        invalidate();
         return this;
     }
 
@@ -151,6 +184,7 @@ public class Ethernet extends BasePacket {
      */
     public Ethernet setVlanID(short vlanID) {
         this.vlanID = vlanID;
+        invalidate();
         return this;
     }
 
@@ -166,6 +200,7 @@ public class Ethernet extends BasePacket {
      */
     public Ethernet setEtherType(short etherType) {
         this.etherType = etherType;
+        invalidate();
         return this;
     }
     
@@ -173,15 +208,15 @@ public class Ethernet extends BasePacket {
      * @return True if the Ethernet frame is broadcast, false otherwise
      */
     public boolean isBroadcast() {
-        assert(destinationMACAddress.length() == 6);
-        return destinationMACAddress.isBroadcast();
+        return destinationMACAddress == MACAddress.BROADCAST;
     }
     
     /**
      * @return True is the Ethernet frame is multicast, False otherwise
      */
     public boolean isMulticast() {
-        return destinationMACAddress.isMulticast();
+        return !isBroadcast()
+                && (destinationMACAddress & 0x010000000000L) != 0;
     }
     /**
      * Pad this packet to 60 bytes minimum, filling with zeros?
@@ -197,53 +232,59 @@ public class Ethernet extends BasePacket {
      */
     public Ethernet setPad(boolean pad) {
         this.pad = pad;
+        invalidate();
         return this;
     }
 
     public byte[] serialize() {
-        byte[] payloadData = null;
-        if (payload != null) {
-            payload.setParent(this);
-            payloadData = payload.serialize();
-        }
+        return serializeToArray();
+    }
+
+    @Override
+    protected boolean tracksChanges() {
+        return true;
+    }
+
+    @Override
+    public int getSerializedLength() {
         int length = 14 + ((vlanID == VLAN_UNTAGGED) ? 0 : 4) +
-                          ((payloadData == null) ? 0 : payloadData.length);
+                          ((payload == null) ? 0 : payload.getSerializedLength());
         if (pad && length < 60) {
             length = 60;
         }
-        byte[] data = new byte[length];
-        ByteBuffer bb = ByteBuffer.wrap(data);
-        bb.put(destinationMACAddress.toBytes());
-        bb.put(sourceMACAddress.toBytes());
+        return length;
+    }
+
+    @Override
+    public void serializeTo(ByteBuffer bb) {
+        if (putSerialized(bb))
+            return;
+        int start = bb.position();
+        putMACAddress(bb, destinationMACAddress);
+        putMACAddress(bb, sourceMACAddress);
         if (vlanID != VLAN_UNTAGGED) {
             bb.putShort((short) 0x8100);
             bb.putShort((short) ((priorityCode << 13) | (vlanID & 0x0fff)));
         }
         bb.putShort(etherType);
-        if (payloadData != null)
-            bb.put(payloadData);
+        if (payload != null) {
+            payload.setParent(this);
+            payload.serializeTo(bb);
+        }
         if (pad) {
-            Arrays.fill(data, bb.position(), data.length, (byte)0x0);
+            while (bb.position() - start < 60)
+                bb.put((byte) 0x0);
         }
-        return data;
     }
 
     @Override
     public IPacket deserialize(byte[] data, int offset, int length) {
+        invalidate();
         if (length <= 0)
             return null;
         ByteBuffer bb = ByteBuffer.wrap(data, offset, length);
-        if (this.destinationMACAddress == null)
-            this.destinationMACAddress = MACAddress.valueOf(new byte[6]);
-        byte[] dstAddr = new byte[MACAddress.MAC_ADDRESS_LENGTH];
-        bb.get(dstAddr);
-        this.destinationMACAddress = MACAddress.valueOf(dstAddr);
-
-        if (this.sourceMACAddress == null)
-            this.sourceMACAddress = MACAddress.valueOf(new byte[6]);
-        byte[] srcAddr = new byte[MACAddress.MAC_ADDRESS_LENGTH];
-        bb.get(srcAddr);
-        this.sourceMACAddress = MACAddress.valueOf(srcAddr);
+        this.destinationMACAddress = getMACAddress(bb);
+        this.sourceMACAddress = getMACAddress(bb);
 
         short etherType = bb.getShort();
         if (etherType == (short) 0x8100) {
@@ -252,26 +293,36 @@ public class Ethernet extends BasePacket {
             this.vlanID = (short) (tci & 0x0fff);
             etherType = bb.getShort();
         } else {
+            this.priorityCode = 0;
             this.vlanID = VLAN_UNTAGGED;
         }
         this.etherType = etherType;
+        this.pad = false;
         
-        IPacket payload;
-        if (Ethernet.etherTypeClassMap.containsKey(this.etherType)) {
-            Class<? extends IPacket> clazz = Ethernet.etherTypeClassMap.get(this.etherType);
-            try {
-                payload = clazz.newInstance();
-            } catch (Exception e) {
-                throw new RuntimeException("Error parsing payload for Ethernet packet", e);
-            }
-        } else {
+        IPacket payload = Ethernet.etherTypeRegistry.newPacket(this.etherType);
+        if (payload == null)
             payload = new Data();
-        }
         this.payload = payload.deserialize(data, bb.position(), bb.limit()-bb.position());
         this.payload.setParent(this);
         return this;
     }
 
+    /**
+     * Write a MAC address held in a long as six bytes.
+     */
+    private static void putMACAddress(ByteBuffer bb, long macAddress) {
+        bb.putShort((short) (macAddress >>> 32));
+        bb.putInt((int) macAddress);
+    }
+
+    /**
+     * Read six bytes as a MAC address held in a long.
+     */
+    private static long getMACAddress(ByteBuffer bb) {
+        long high = bb.getShort() & 0xffffL;
+        return (high << 32) | (bb.getInt() & 0xffffffffL);
+    }
+
     /**
      * Checks to see if a string is a valid MAC address.
      * @param macAddress
@@ -308,7 +359,7 @@ public class Ethernet extends BasePacket {
      * @return a long containing the mac address bytes
      */
     public static long toLong(byte[] macAddress) {
-        return MACAddress.valueOf(macAddress).toLong();
+        return MACAddress.toLong(macAddress, 0);
     }
 
     /**
@@ -317,7 +368,7 @@ public class Ethernet extends BasePacket {
      * @return the bytes of the mac address
      */
     public static byte[] toByteArray(long macAddress) {
-        return MACAddress.valueOf(macAddress).toBytes();
+        return MACAddress.toBytes(macAddress);
     }
     
     /* (non-Javadoc)
@@ -327,12 +378,12 @@ public class Ethernet extends BasePacket {
     public int hashCode() {
         final int prime = 7867;
         int result = super.hashCode();
-        result = prime * result + destinationMACAddress.hashCode();
+        result = prime * result + Long.hashCode(destinationMACAddress);
         result = prime * result + etherType;
         result = prime * result + vlanID;
         result = prime * result + priorityCode;
         result = prime * result + (pad ? 1231 : 1237);
-        result = prime * result + sourceMACAddress.hashCode();
+        result = prime * result + Long.hashCode(sourceMACAddress);
         return result;
     }
 
@@ -348,7 +399,7 @@ public class Ethernet extends BasePacket {
         if (!(obj instanceof Ethernet))
             return false;
         Ethernet other = (Ethernet) obj;
-        if (!destinationMACAddress.equals(other.destinationMACAddress))
+        if (destinationMACAddress != other.destinationMACAddress)
             return false;
         if (priorityCode != other.priorityCode)
             return false;
@@ -358,7 +409,7 @@ public class Ethernet extends BasePacket {
             return false;
         if (pad != other.pad)
             return false;
-        if (!sourceMACAddress.equals(other.sourceMACAddress))
+        if (sourceMACAddress != other.sourceMACAddress)
             return false;
         return true;
     }
@@ -0,0 +1,312 @@
+package net.floodlightcontroller.packet;
+
+/**
+ * Flyweight view of the headers of an Ethernet frame, read straight out of
+ * the bytes the frame was received in. A view decodes nothing up front and
+ * copies nothing; each accessor reads its field from the frame when called.
+ * One view can be re-pointed at frame after frame with {@link #wrap}.
+ * <p>
+ * The view is read-only, except for the fields a router rewrites when it
+ * forwards a frame: the MAC addresses, and the IPv4 TTL and checksum.
+ * Use {@link #toEthernet()} to decode the full packet when a frame needs
+ * more than its headers.
+ */
+public class FrameView {
+    /** Length of an Ethernet header without a VLAN tag */
+    private static final int ETHERNET_HEADER_LENGTH = 14;
+
+    /** Length of an 802.1Q VLAN tag */
+    private static final int VLAN_TAG_LENGTH = 4;
+
+    /** Length of an IPv4 header without options */
+    private static final int IPV4_HEADER_LENGTH = 20;
+
+    /** Length of an ARP header with no addresses */
+    private static final int ARP_HEADER_LENGTH = 8;
+
+    protected byte[] data;
+    protected int offset;
+    protected int length;
+
+    /** Ether type of the frame's payload, after any VLAN tag */
+    protected short etherType;
+
+    /** Index in the data of the Ethernet payload */
+    protected int networkOffset;
+
+    /** Length in bytes of the IPv4 header; 0 if the frame does not hold a
+     *  complete IPv4 header */
+    protected int ipHeaderLength;
+
+    /**
+     * Point the view at a frame.
+     * @param data bytes holding the frame
+     * @param offset index of the first byte of the frame
+     * @param length length of the frame
+     * @return this view
+     */
+    public FrameView wrap(byte[] data, int offset, int length) {
+        this.data = data;
+        this.offset = offset;
+        this.length = length;
+        this.etherType = 0;
+        this.networkOffset = offset + length;
+        this.ipHeaderLength = 0;
+
+        if (length < ETHERNET_HEADER_LENGTH)
+            return this;
+        int typeOffset = offset + 12;
+        short type = getShort(data, typeOffset);
+        if (type == (short) 0x8100) {
+            if (length < ETHERNET_HEADER_LENGTH + VLAN_TAG_LENGTH)
+                return this;
+            typeOffset += VLAN_TAG_LENGTH;
+            type = getShort(data, typeOffset);
+        }
+        this.etherType = type;
+        this.networkOffset = typeOffset + 2;
+
+        if (Ethernet.TYPE_IPv4 == type
+                && this.networkOffset + IPV4_HEADER_LENGTH <= offset + length) {
+            int versionAndLength = data[this.networkOffset];
+            int headerLength = (versionAndLength & 0xf) * 4;
+            if (((versionAndLength >> 4) & 0xf) == 4
+                    && headerLength >= IPV4_HEADER_LENGTH
+                    && this.networkOffset + headerLength <= offset + length)
+                this.ipHeaderLength = headerLength;
+        }
+        return this;
+    }
+
+    /**
+     * @return bytes holding the frame
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * @return index in the data of the first byte of the frame
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return length of the frame
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return the destination MAC address, in the low 48 bits
+     */
+    public long getDestinationMAC() {
+        return getMAC(offset);
+    }
+
+    /**
+     * @param mac the destination MAC address, in the low 48 bits
+     */
+    public void setDestinationMAC(long mac) {
+        putMAC(offset, mac);
+    }
+
+    /**
+     * @return the source MAC address, in the low 48 bits
+     */
+    public long getSourceMAC() {
+        return getMAC(offset + 6);
+    }
+
+    /**
+     * @param mac the source MAC address, in the low 48 bits
+     */
+    public void setSourceMAC(long mac) {
+        putMAC(offset + 6, mac);
+    }
+
+    /**
+     * @return the ether type of the payload, after any VLAN tag; 0 if the
+     *         frame is too short to have one
+     */
+    public short getEtherType() {
+        return etherType;
+    }
+
+    /**
+     * @return true if the frame holds a complete IPv4 header
+     */
+    public boolean isIPv4() {
+        return ipHeaderLength != 0;
+    }
+
+    /**
+     * @return index in the data of the Ethernet payload
+     */
+    public int getNetworkOffset() {
+        return networkOffset;
+    }
+
+    /**
+     * @return length in bytes of the IPv4 header, including options
+     */
+    public int getIpHeaderLength() {
+        return ipHeaderLength;
+    }
+
+    public byte getTtl() {
+        return data[networkOffset + 8];
+    }
+
+    /**
+     * @param ttl the new TTL; the checksum is not updated
+     */
+    public void setTtl(byte ttl) {
+        data[networkOffset + 8] = ttl;
+    }
+
+    public byte getProtocol() {
+        return data[networkOffset + 9];
+    }
+
+    public short getIpChecksum() {
+        return getShort(data, networkOffset + 10);
+    }
+
+    public int getSourceAddress() {
+        return getInt(data, networkOffset + 12);
+    }
+
+    public int getDestinationAddress() {
+        return getInt(data, networkOffset + 16);
+    }
+
+    public byte getFlags() {
+        return (byte) ((data[networkOffset + 6] >> 5) & 0x7);
+    }
+
+    public short getFragmentOffset() {
+        return (short) (getShort(data, networkOffset + 6) & 0x1fff);
+    }
+
+    /**
+     * @return true if the IPv4 header checksum is correct
+     */
+    public boolean isIpChecksumValid() {
+        return Checksum.isValid(data, networkOffset, ipHeaderLength);
+    }
+
+    /**
+     * Recompute the IPv4 header checksum, after a header field was changed.
+     */
+    public void updateIpChecksum() {
+        putShort(data, networkOffset + 10, (short) 0);
+        putShort(data, networkOffset + 10,
+                Checksum.compute(data, networkOffset, ipHeaderLength));
+    }
+
+    /**
+     * Decrement the TTL and update the IPv4 header checksum to match, without
+     * summing the header again (RFC 1624).
+     */
+    public void decrementTtl() {
+        int index = networkOffset + 8;
+        int oldWord = getShort(data, index) & 0xffff;
+        data[index]--;
+        int newWord = getShort(data, index) & 0xffff;
+        putShort(data, networkOffset + 10,
+                Checksum.update(getIpChecksum(), oldWord, newWord));
+    }
+
+    /**
+     * @return true if the frame holds the ports of a TCP or UDP packet that
+     *         is not fragmented; only the first fragment of a packet carries
+     *         its ports
+     */
+    public boolean hasPorts() {
+        if (0 == ipHeaderLength)
+            return false;
+        byte protocol = getProtocol();
+        if (protocol != IPv4.PROTOCOL_TCP && protocol != IPv4.PROTOCOL_UDP)
+            return false;
+        if ((getFlags() & IPv4.IPV4_FLAGS_MOREFRAG) != 0
+                || getFragmentOffset() != 0)
+            return false;
+        return networkOffset + ipHeaderLength + 4 <= offset + length;
+    }
+
+    public short getSourcePort() {
+        return getShort(data, networkOffset + ipHeaderLength);
+    }
+
+    public short getDestinationPort() {
+        return getShort(data, networkOffset + ipHeaderLength + 2);
+    }
+
+    /**
+     * @return true if the frame holds an ARP packet for IPv4 addresses over
+     *         Ethernet
+     */
+    public boolean isArp() {
+        return Ethernet.TYPE_ARP == etherType
+                && networkOffset + ARP_HEADER_LENGTH
+                        + 2 * (Ethernet.DATALAYER_ADDRESS_LENGTH + 4)
+                        <= offset + length
+                && Ethernet.DATALAYER_ADDRESS_LENGTH == data[networkOffset + 4]
+                && 4 == data[networkOffset + 5];
+    }
+
+    public short getArpOpCode() {
+        return getShort(data, networkOffset + 6);
+    }
+
+    public int getArpSenderProtocolAddress() {
+        return getInt(data, networkOffset + ARP_HEADER_LENGTH
+                + Ethernet.DATALAYER_ADDRESS_LENGTH);
+    }
+
+    public int getArpTargetProtocolAddress() {
+        return getInt(data, networkOffset + ARP_HEADER_LENGTH
+                + 2 * Ethernet.DATALAYER_ADDRESS_LENGTH + 4);
+    }
+
+    /**
+     * Decode the whole frame into a packet.
+     * @return the frame as an Ethernet packet
+     */
+    public Ethernet toEthernet() {
+        Ethernet etherPacket = new Ethernet();
+        etherPacket.deserialize(data, offset, length);
+        return etherPacket;
+    }
+
+    private long getMAC(int index) {
+        long mac = 0;
+        for (int i = 0; i < Ethernet.DATALAYER_ADDRESS_LENGTH; i++)
+            mac = (mac << 8) | (data[index + i] & 0xff);
+        return mac;
+    }
+
+    private void putMAC(int index, long mac) {
+        for (int i = Ethernet.DATALAYER_ADDRESS_LENGTH - 1; i >= 0; i--) {
+            data[index + i] = (byte) mac;
+            mac >>>= 8;
+        }
+    }
+
+    private static short getShort(byte[] data, int index) {
+        return (short) (((data[index] & 0xff) << 8) | (data[index + 1] & 0xff));
+    }
+
+    private static void putShort(byte[] data, int index, short value) {
+        data[index] = (byte) (value >> 8);
+        data[index + 1] = (byte) value;
+    }
+
+    private static int getInt(byte[] data, int index) {
+        return ((data[index] & 0xff) << 24) | ((data[index + 1] & 0xff) << 16)
+                | ((data[index + 2] & 0xff) << 8) | (data[index + 3] & 0xff);
+    }
+}
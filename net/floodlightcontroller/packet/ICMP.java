@@ -42,6 +42,7 @@ public class ICMP extends BasePacket {
      */
     public ICMP setIcmpType(byte icmpType) {
         this.icmpType = icmpType;
+        invalidate();
         return this;
     }
 
@@ -57,6 +58,7 @@ public class ICMP extends BasePacket {
      */
     public ICMP setIcmpCode(byte icmpCode) {
         this.icmpCode = icmpCode;
+        invalidate();
         return this;
     }
 
@@ -72,6 +74,7 @@ public class ICMP extends BasePacket {
      */
     public ICMP setChecksum(short checksum) {
         this.checksum = checksum;
+        invalidate();
         return this;
     }
 
@@ -82,45 +85,46 @@ public class ICMP extends BasePacket {
      *      -length : 0
      */
     public byte[] serialize() {
-        int length = 4;
-        byte[] payloadData = null;
+        return serializeToArray();
+    }
+
+    @Override
+    protected boolean tracksChanges() {
+        return true;
+    }
+
+    @Override
+    public int getSerializedLength() {
+        return 4 + ((payload == null) ? 0 : payload.getSerializedLength());
+    }
+
+    @Override
+    public void serializeTo(ByteBuffer bb) {
+        if (putSerialized(bb))
+            return;
+        int start = bb.position();
+        bb.position(start + 4);
         if (payload != null) {
             payload.setParent(this);
-            payloadData = payload.serialize();
-            length += payloadData.length;
+            payload.serializeTo(bb);
         }
+        int end = bb.position();
+        int length = end - start;
 
-        byte[] data = new byte[length];
-        ByteBuffer bb = ByteBuffer.wrap(data);
-
+        bb.position(start);
         bb.put(this.icmpType);
         bb.put(this.icmpCode);
         bb.putShort(this.checksum);
-        if (payloadData != null)
-            bb.put(payloadData);
+        bb.position(end);
 
         if (this.parent != null && this.parent instanceof IPv4)
             ((IPv4)this.parent).setProtocol(IPv4.PROTOCOL_ICMP);
 
         // compute checksum if needed
         if (this.checksum == 0) {
-            bb.rewind();
-            int accumulation = 0;
-
-            for (int i = 0; i < length / 2; ++i) {
-                accumulation += 0xffff & bb.getShort();
-            }
-            // pad to an even number of shorts
-            if (length % 2 > 0) {
-                accumulation += (bb.get() & 0xff) << 8;
-            }
-
-            accumulation = ((accumulation >> 16) & 0xffff)
-                    + (accumulation & 0xffff);
-            this.checksum = (short) (~accumulation & 0xffff);
-            bb.putShort(2, this.checksum);
+            this.checksum = Checksum.finish(Checksum.add(0, bb, start, length));
+            bb.putShort(start + 2, this.checksum);
         }
-        return data;
     }
 
     /* (non-Javadoc)
@@ -159,6 +163,7 @@ public class ICMP extends BasePacket {
 
     @Override
     public IPacket deserialize(byte[] data, int offset, int length) {
+        invalidate();
         ByteBuffer bb = ByteBuffer.wrap(data, offset, length);
         this.icmpType = bb.get();
         this.icmpCode = bb.get();
@@ -17,6 +17,8 @@
 
 package net.floodlightcontroller.packet;
 
+import java.nio.ByteBuffer;
+
 /**
 *
 * @author David Erickson (daviderickson@cs.stanford.edu)
@@ -52,6 +54,13 @@ public interface IPacket {
      * Reset any checksums as needed, and call resetChecksum on all parents
      */
     public void resetChecksum();
+
+    /**
+     * Discard the serialized form cached by this packet and all its parents.
+     * Setters call this; call it after changing a packet any other way, such
+     * as through an array or list returned by a getter.
+     */
+    public void invalidate();
     
     /**
      * Sets all payloads parent packet if applicable, then serializes this 
@@ -60,6 +69,22 @@ public interface IPacket {
      */
     public byte[] serialize();
 
+    /**
+     * @return the number of bytes serialize() and serializeTo(ByteBuffer)
+     *         produce for this packet, including all payloads
+     */
+    public int getSerializedLength();
+
+    /**
+     * Serializes this packet and all payloads into a buffer, starting at
+     * the buffer's position and leaving the position after the last byte
+     * written. Fields that serialize() computes, such as lengths and
+     * checksums, are computed the same way.
+     * @param bb big-endian buffer with at least getSerializedLength() bytes
+     *        remaining
+     */
+    public void serializeTo(ByteBuffer bb);
+
     /**
      * Deserializes this packet layer and all possible payloads
      * @param data
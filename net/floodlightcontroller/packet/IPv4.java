@@ -23,8 +23,6 @@ package net.floodlightcontroller.packet;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  * @author David Erickson (daviderickson@cs.stanford.edu)
@@ -34,13 +32,15 @@ public class IPv4 extends BasePacket {
     public static final byte PROTOCOL_ICMP = 0x1;
     public static final byte PROTOCOL_TCP = 0x6;
     public static final byte PROTOCOL_UDP = 0x11;
-    public static Map<Byte, Class<? extends IPacket>> protocolClassMap;
+    public static final byte IPV4_FLAGS_MOREFRAG = 0x1;
+    public static final byte IPV4_FLAGS_DONTFRAG = 0x2;
+    /** Payload factories by IP protocol */
+    public static final PayloadRegistry protocolRegistry = new PayloadRegistry(8);
 
     static {
-        protocolClassMap = new HashMap<Byte, Class<? extends IPacket>>();
-        protocolClassMap.put(PROTOCOL_ICMP, ICMP.class);
-        protocolClassMap.put(PROTOCOL_TCP, TCP.class);
-        protocolClassMap.put(PROTOCOL_UDP, UDP.class);
+        protocolRegistry.register(PROTOCOL_ICMP, ICMP::new);
+        protocolRegistry.register(PROTOCOL_TCP, TCP::new);
+        protocolRegistry.register(PROTOCOL_UDP, UDP::new);
     }
 
     protected byte version;
@@ -80,6 +80,7 @@ public class IPv4 extends BasePacket {
      */
     public IPv4 setVersion(byte version) {
         this.version = version;
+        invalidate();
         return this;
     }
 
@@ -102,6 +103,7 @@ public class IPv4 extends BasePacket {
      */
     public IPv4 setDiffServ(byte diffServ) {
         this.diffServ = diffServ;
+        invalidate();
         return this;
     }
 
@@ -132,6 +134,7 @@ public class IPv4 extends BasePacket {
      */
     public IPv4 setIdentification(short identification) {
         this.identification = identification;
+        invalidate();
         return this;
     }
 
@@ -147,6 +150,7 @@ public class IPv4 extends BasePacket {
      */
     public IPv4 setFlags(byte flags) {
         this.flags = flags;
+        invalidate();
         return this;
     }
 
@@ -162,6 +166,7 @@ public class IPv4 extends BasePacket {
      */
     public IPv4 setFragmentOffset(short fragmentOffset) {
         this.fragmentOffset = fragmentOffset;
+        invalidate();
         return this;
     }
 
@@ -177,6 +182,7 @@ public class IPv4 extends BasePacket {
      */
     public IPv4 setTtl(byte ttl) {
         this.ttl = ttl;
+        invalidate();
         return this;
     }
 
@@ -192,6 +198,7 @@ public class IPv4 extends BasePacket {
      */
     public IPv4 setProtocol(byte protocol) {
         this.protocol = protocol;
+        invalidate();
         return this;
     }
 
@@ -207,6 +214,7 @@ public class IPv4 extends BasePacket {
      */
     public IPv4 setChecksum(short checksum) {
         this.checksum = checksum;
+        invalidate();
         return this;
     }
     @Override
@@ -215,6 +223,48 @@ public class IPv4 extends BasePacket {
         super.resetChecksum();
     }
 
+    /**
+     * Computes the header checksum from the header fields, without
+     * serializing the packet.
+     * @return the checksum the header should carry
+     */
+    public short computeChecksum() {
+        long accumulation = ((((this.version & 0xf) << 4)
+                | (this.headerLength & 0xf)) << 8) | (this.diffServ & 0xff);
+        accumulation += this.totalLength & 0xffff;
+        accumulation += this.identification & 0xffff;
+        accumulation += (((this.flags & 0x7) << 13)
+                | (this.fragmentOffset & 0x1fff));
+        accumulation += ((this.ttl & 0xff) << 8) | (this.protocol & 0xff);
+        accumulation += this.sourceAddress & 0xffffffffL;
+        accumulation += this.destinationAddress & 0xffffffffL;
+        if (this.options != null)
+            accumulation = Checksum.add(accumulation, this.options, 0,
+                    this.options.length);
+        return Checksum.finish(accumulation);
+    }
+
+    /**
+     * @return true if the checksum matches the header fields
+     */
+    public boolean isChecksumValid() {
+        return this.checksum == computeChecksum();
+    }
+
+    /**
+     * Decrements the TTL and updates the checksum to match, without
+     * recomputing it over the whole header (RFC 1624).
+     * @return this packet
+     */
+    public IPv4 decrementTtl() {
+        int oldWord = ((this.ttl & 0xff) << 8) | (this.protocol & 0xff);
+        this.ttl--;
+        int newWord = ((this.ttl & 0xff) << 8) | (this.protocol & 0xff);
+        this.checksum = Checksum.update(this.checksum, oldWord, newWord);
+        invalidate();
+        return this;
+    }
+
     /**
      * @return the sourceAddress
      */
@@ -227,6 +277,7 @@ public class IPv4 extends BasePacket {
      */
     public IPv4 setSourceAddress(int sourceAddress) {
         this.sourceAddress = sourceAddress;
+        invalidate();
         return this;
     }
 
@@ -235,6 +286,7 @@ public class IPv4 extends BasePacket {
      */
     public IPv4 setSourceAddress(String sourceAddress) {
         this.sourceAddress = IPv4.toIPv4Address(sourceAddress);
+        invalidate();
         return this;
     }
 
@@ -250,6 +302,7 @@ public class IPv4 extends BasePacket {
      */
     public IPv4 setDestinationAddress(int destinationAddress) {
         this.destinationAddress = destinationAddress;
+        invalidate();
         return this;
     }
 
@@ -258,6 +311,7 @@ public class IPv4 extends BasePacket {
      */
     public IPv4 setDestinationAddress(String destinationAddress) {
         this.destinationAddress = IPv4.toIPv4Address(destinationAddress);
+        invalidate();
         return this;
     }
 
@@ -276,6 +330,7 @@ public class IPv4 extends BasePacket {
             throw new IllegalArgumentException(
                     "Options length must be a multiple of 4");
         this.options = options;
+        invalidate();
         return this;
     }
 
@@ -287,23 +342,43 @@ public class IPv4 extends BasePacket {
      *      -totalLength : 0
      */
     public byte[] serialize() {
-        byte[] payloadData = null;
-        if (payload != null) {
-            payload.setParent(this);
-            payloadData = payload.serialize();
-        }
+        return serializeToArray();
+    }
 
+    @Override
+    protected boolean tracksChanges() {
+        return true;
+    }
+
+    @Override
+    public int getSerializedLength() {
         int optionsLength = 0;
         if (this.options != null)
             optionsLength = this.options.length / 4;
-        this.headerLength = (byte) (5 + optionsLength);
+        return (5 + optionsLength) * 4
+                + ((payload == null) ? 0 : payload.getSerializedLength());
+    }
 
-        this.totalLength = (short) (this.headerLength * 4 + ((payloadData == null) ? 0
-                : payloadData.length));
+    @Override
+    public void serializeTo(ByteBuffer bb) {
+        if (putSerialized(bb))
+            return;
+        int start = bb.position();
+        int optionsLength = 0;
+        if (this.options != null)
+            optionsLength = this.options.length / 4;
+        this.headerLength = (byte) (5 + optionsLength);
 
-        byte[] data = new byte[this.totalLength];
-        ByteBuffer bb = ByteBuffer.wrap(data);
+        // The payload goes first, since it may set fields of this header
+        bb.position(start + this.headerLength * 4);
+        if (payload != null) {
+            payload.setParent(this);
+            payload.serializeTo(bb);
+        }
+        int end = bb.position();
+        this.totalLength = (short) (end - start);
 
+        bb.position(start);
         bb.put((byte) (((this.version & 0xf) << 4) | (this.headerLength & 0xf)));
         bb.put(this.diffServ);
         bb.putShort(this.totalLength);
@@ -316,26 +391,19 @@ public class IPv4 extends BasePacket {
         bb.putInt(this.destinationAddress);
         if (this.options != null)
             bb.put(this.options);
-        if (payloadData != null)
-            bb.put(payloadData);
 
         // compute checksum if needed
         if (this.checksum == 0) {
-            bb.rewind();
-            int accumulation = 0;
-            for (int i = 0; i < this.headerLength * 2; ++i) {
-                accumulation += 0xffff & bb.getShort();
-            }
-            accumulation = ((accumulation >> 16) & 0xffff)
-                    + (accumulation & 0xffff);
-            this.checksum = (short) (~accumulation & 0xffff);
-            bb.putShort(10, this.checksum);
+            this.checksum = Checksum.finish(
+                    Checksum.add(0, bb, start, this.headerLength * 4));
+            bb.putShort(start + 10, this.checksum);
         }
-        return data;
+        bb.position(end);
     }
 
     @Override
     public IPacket deserialize(byte[] data, int offset, int length) {
+        invalidate();
         ByteBuffer bb = ByteBuffer.wrap(data, offset, length);
         short sscratch;
 
@@ -358,19 +426,13 @@ public class IPv4 extends BasePacket {
             int optionsLength = (this.headerLength - 5) * 4;
             this.options = new byte[optionsLength];
             bb.get(this.options);
+        } else {
+            this.options = null;
         }
 
-        IPacket payload;
-        if (IPv4.protocolClassMap.containsKey(this.protocol)) {
-            Class<? extends IPacket> clazz = IPv4.protocolClassMap.get(this.protocol);
-            try {
-                payload = clazz.newInstance();
-            } catch (Exception e) {
-                throw new RuntimeException("Error parsing payload for IPv4 packet", e);
-            }
-        } else {
+        IPacket payload = IPv4.protocolRegistry.newPacket(this.protocol);
+        if (payload == null)
             payload = new Data();
-        }
         this.payload = payload.deserialize(data, bb.position(), bb.limit()-bb.position());
         this.payload.setParent(this);
 
@@ -555,4 +617,11 @@ public class IPv4 extends BasePacket {
             return false;
         return true;
     }
+
+    @Override
+    public Object clone() {
+        IPv4 pkt = (IPv4) super.clone();
+        pkt.options = (options == null) ? null : options.clone();
+        return pkt;
+    }
 }
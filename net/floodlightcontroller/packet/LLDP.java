@@ -201,4 +201,19 @@ public class LLDP extends BasePacket {
             return false;
         return true;
     }
+
+    @Override
+    public Object clone() {
+        LLDP pkt = (LLDP) super.clone();
+        pkt.chassisId = (chassisId == null) ? null : chassisId.clone();
+        pkt.portId = (portId == null) ? null : portId.clone();
+        pkt.ttl = (ttl == null) ? null : ttl.clone();
+        if (optionalTLVList != null) {
+            pkt.optionalTLVList =
+                    new ArrayList<LLDPTLV>(optionalTLVList.size());
+            for (LLDPTLV tlv : optionalTLVList)
+                pkt.optionalTLVList.add(tlv.clone());
+        }
+        return pkt;
+    }
 }
@@ -178,4 +178,12 @@ public class LLDPOrganizationalTLV extends LLDPTLV {
 
         return true;
     }
+
+    @Override
+    public LLDPOrganizationalTLV clone() {
+        LLDPOrganizationalTLV copy = (LLDPOrganizationalTLV) super.clone();
+        copy.oui = (oui == null) ? null : oui.clone();
+        copy.infoString = (infoString == null) ? null : infoString.clone();
+        return copy;
+    }
 }
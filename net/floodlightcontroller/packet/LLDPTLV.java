@@ -25,7 +25,7 @@ import java.util.Arrays;
  *
  * @author David Erickson (daviderickson@cs.stanford.edu)
  */
-public class LLDPTLV {
+public class LLDPTLV implements Cloneable {
     protected byte type;
     protected short length;
     protected byte[] value;
@@ -137,4 +137,15 @@ public class LLDPTLV {
             return false;
         return true;
     }
+
+    @Override
+    public LLDPTLV clone() {
+        try {
+            LLDPTLV copy = (LLDPTLV) super.clone();
+            copy.value = (value == null) ? null : value.clone();
+            return copy;
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException("Could not clone LLDPTLV", e);
+        }
+    }
 }
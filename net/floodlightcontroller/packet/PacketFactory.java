@@ -0,0 +1,11 @@
+package net.floodlightcontroller.packet;
+
+/**
+ * Creates empty packets of one type, ready to be deserialized.
+ */
+public interface PacketFactory {
+    /**
+     * @return a new packet
+     */
+    public IPacket newPacket();
+}
@@ -0,0 +1,153 @@
+package net.floodlightcontroller.packet;
+
+import net.floodlightcontroller.util.ObjectPool;
+
+/**
+ * Recycles the Ethernet, IPv4, UDP, TCP and ICMP objects frames are decoded
+ * into. {@link #decode} takes the Ethernet packet from the pool and, once the
+ * pool is installed, its payloads come from the pool as well;
+ * {@link #release} returns every pooled layer of a packet once it has been
+ * handled. Other layers, such as Data, are left to the garbage collector.
+ * <p>
+ * A released packet must not be used again, nor any of its layers be
+ * referenced from elsewhere; copy a packet with clone() to keep it past its
+ * release. Pooled objects are reused through deserialize(), which sets every
+ * field of the layer it decodes.
+ * <p>
+ * A pool belongs to the thread that installs it, which is meant to be the
+ * thread that reads frames. Decoding on, and releasing from, other threads
+ * bypasses the pool, so the pool takes no locks.
+ */
+public class PacketPool {
+    private final ObjectPool<Ethernet> ethernetPool;
+    private final ObjectPool<IPv4> ipv4Pool;
+    private final ObjectPool<UDP> udpPool;
+    private final ObjectPool<TCP> tcpPool;
+    private final ObjectPool<ICMP> icmpPool;
+
+    /** Thread the pool belongs to */
+    private volatile Thread owner;
+
+    /**
+     * @param capacity most objects of each type kept for reuse
+     * @param detectLeaks true to track packets until they are released
+     */
+    public PacketPool(int capacity, boolean detectLeaks) {
+        this.ethernetPool = new ObjectPool<Ethernet>(Ethernet::new, capacity,
+                detectLeaks);
+        this.ipv4Pool = new ObjectPool<IPv4>(IPv4::new, capacity, detectLeaks);
+        this.udpPool = new ObjectPool<UDP>(UDP::new, capacity, detectLeaks);
+        this.tcpPool = new ObjectPool<TCP>(TCP::new, capacity, detectLeaks);
+        this.icmpPool = new ObjectPool<ICMP>(ICMP::new, capacity, detectLeaks);
+    }
+
+    /**
+     * Register the pool's factories for IPv4, UDP, TCP and ICMP in place of
+     * the default ones, so payloads the calling thread decodes from then on
+     * come from the pool, and make the pool belong to the calling thread.
+     * Only one pool should be installed.
+     */
+    public void install() {
+        this.owner = Thread.currentThread();
+        Ethernet.etherTypeRegistry.register(Ethernet.TYPE_IPv4,
+                () -> isOwner() ? ipv4Pool.acquire() : new IPv4());
+        IPv4.protocolRegistry.register(IPv4.PROTOCOL_UDP,
+                () -> isOwner() ? udpPool.acquire() : new UDP());
+        IPv4.protocolRegistry.register(IPv4.PROTOCOL_TCP,
+                () -> isOwner() ? tcpPool.acquire() : new TCP());
+        IPv4.protocolRegistry.register(IPv4.PROTOCOL_ICMP,
+                () -> isOwner() ? icmpPool.acquire() : new ICMP());
+    }
+
+    /**
+     * Decode a frame into a pooled Ethernet packet.
+     * @param data bytes holding the frame
+     * @param offset index of the first byte of the frame
+     * @param length length of the frame
+     * @return the decoded packet, to be passed to release() once handled
+     */
+    public Ethernet decode(byte[] data, int offset, int length) {
+        Ethernet etherPacket = isOwner() ? ethernetPool.acquire()
+                : new Ethernet();
+        etherPacket.deserialize(data, offset, length);
+        return etherPacket;
+    }
+
+    /**
+     * Return the pooled layers of a packet, and of its payloads, to the pool.
+     * @param packet the outermost layer of a packet from decode()
+     */
+    public void release(IPacket packet) {
+        if (!isOwner())
+            return;
+        while (packet != null) {
+            IPacket payload = packet.getPayload();
+            if (packet instanceof Ethernet)
+                ethernetPool.release((Ethernet) recycle(packet));
+            else if (packet instanceof IPv4)
+                ipv4Pool.release((IPv4) recycle(packet));
+            else if (packet instanceof UDP)
+                udpPool.release((UDP) recycle(packet));
+            else if (packet instanceof TCP)
+                tcpPool.release((TCP) recycle(packet));
+            else if (packet instanceof ICMP)
+                icmpPool.release((ICMP) recycle(packet));
+            packet = payload;
+        }
+    }
+
+    /**
+     * Report the packets decoded and not yet released. Does nothing unless
+     * leak detection is on.
+     * @return the number of pooled objects reported
+     */
+    public int reportLeaks() {
+        return ethernetPool.reportLeaks() + ipv4Pool.reportLeaks()
+                + udpPool.reportLeaks() + tcpPool.reportLeaks()
+                + icmpPool.reportLeaks();
+    }
+
+    /**
+     * @return true if leak detection is on
+     */
+    public boolean isDetectingLeaks() {
+        return ethernetPool.isDetectingLeaks();
+    }
+
+    /**
+     * @return number of packet objects handed out
+     */
+    public long getAcquireCount() {
+        return ethernetPool.getAcquireCount() + ipv4Pool.getAcquireCount()
+                + udpPool.getAcquireCount() + tcpPool.getAcquireCount()
+                + icmpPool.getAcquireCount();
+    }
+
+    /**
+     * @return number of packet objects created because none were free
+     */
+    public long getCreateCount() {
+        return ethernetPool.getCreateCount() + ipv4Pool.getCreateCount()
+                + udpPool.getCreateCount() + tcpPool.getCreateCount()
+                + icmpPool.getCreateCount();
+    }
+
+    /**
+     * @return true if the current thread is the one the pool belongs to
+     */
+    private boolean isOwner() {
+        return Thread.currentThread() == owner;
+    }
+
+    /**
+     * Drop a layer's links to other packets, and its cached serialized form,
+     * before it goes back in the pool.
+     */
+    private static IPacket recycle(IPacket packet) {
+        BasePacket pkt = (BasePacket) packet;
+        pkt.parent = null;
+        pkt.payload = null;
+        pkt.serialized = null;
+        return pkt;
+    }
+}
@@ -0,0 +1,84 @@
+package net.floodlightcontroller.packet;
+
+/**
+ * Maps the type field of a header (an ether type, IP protocol, port and so
+ * on) to the factory for the payload it identifies. Keys are unboxed
+ * primitives used as array indexes, so finding a factory neither allocates
+ * nor hashes.
+ * <p>
+ * Lookups take no lock. Registering replaces the affected arrays rather than
+ * changing them, so a lookup sees either the old or the new factory.
+ */
+public class PayloadRegistry {
+    /** Number of keys in a page */
+    private static final int PAGE_SIZE = 256;
+
+    /** Factories, in pages of PAGE_SIZE keys; a page is only allocated once
+     *  a factory is registered for one of its keys */
+    private volatile PacketFactory[][] pages;
+
+    /** Mask selecting the bits of a key the registry uses */
+    private final int keyMask;
+
+    /**
+     * Creates an empty registry.
+     * @param keyBits number of bits in a key; 8 or 16
+     */
+    public PayloadRegistry(int keyBits) {
+        this.keyMask = (1 << keyBits) - 1;
+        this.pages = new PacketFactory[(this.keyMask + PAGE_SIZE) / PAGE_SIZE][];
+    }
+
+    /**
+     * @param key type field value, taken as unsigned
+     * @return the factory registered for the key; null if there is none
+     */
+    public PacketFactory get(int key) {
+        key &= keyMask;
+        PacketFactory[] page = pages[key / PAGE_SIZE];
+        return (page == null) ? null : page[key % PAGE_SIZE];
+    }
+
+    /**
+     * @param key type field value, taken as unsigned
+     * @return true if a factory is registered for the key
+     */
+    public boolean contains(int key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Creates an empty packet for a key.
+     * @param key type field value, taken as unsigned
+     * @return a new packet from the factory registered for the key; null if
+     *         there is none
+     */
+    public IPacket newPacket(int key) {
+        PacketFactory factory = get(key);
+        return (factory == null) ? null : factory.newPacket();
+    }
+
+    /**
+     * Registers the factory for a key, replacing any previous one.
+     * @param key type field value, taken as unsigned
+     * @param factory factory for the payload the key identifies; null to
+     *        remove the key
+     */
+    public synchronized void register(int key, PacketFactory factory) {
+        key &= keyMask;
+        PacketFactory[][] newPages = pages.clone();
+        PacketFactory[] page = newPages[key / PAGE_SIZE];
+        page = (page == null) ? new PacketFactory[PAGE_SIZE] : page.clone();
+        page[key % PAGE_SIZE] = factory;
+        newPages[key / PAGE_SIZE] = page;
+        pages = newPages;
+    }
+
+    /**
+     * Removes the factory for a key.
+     * @param key type field value, taken as unsigned
+     */
+    public void unregister(int key) {
+        register(key, null);
+    }
+}
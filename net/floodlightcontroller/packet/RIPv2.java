@@ -22,39 +22,57 @@ public class RIPv2 extends BasePacket
     }
 
 	public void setEntries(List<RIPv2Entry> entries)
-	{ this.entries = entries; }
+	{ 
+		this.entries = entries;
+		this.invalidate();
+	}
 
 	public List<RIPv2Entry> getEntries()
 	{ return this.entries; }
 
     public void addEntry(RIPv2Entry entry)
-    { this.entries.add(entry); }
+    { 
+    	this.entries.add(entry);
+    	this.invalidate();
+    }
 	
 	public void setCommand(byte command)
-	{ this.command = command; }
+	{ 
+		this.command = command;
+		this.invalidate();
+	}
 
 	public byte getCommand()
 	{ return this.command; }
 
 	@Override
 	public byte[] serialize() 
-    {
-		int length = 1 + 1 + 2 + this.entries.size() * (5*4);
-		byte[] data = new byte[length];
-		ByteBuffer bb = ByteBuffer.wrap(data);
+    { return this.serializeToArray(); }
+
+	@Override
+	protected boolean tracksChanges()
+	{ return true; }
 
+	@Override
+	public int getSerializedLength()
+	{ return 1 + 1 + 2 + this.entries.size() * (5*4); }
+
+	@Override
+	public void serializeTo(ByteBuffer bb)
+	{
+		if (this.putSerialized(bb))
+		{ return; }
 		bb.put(this.command);
 		bb.put(this.version);
 		bb.putShort((short)0); // Put padding
 		for (RIPv2Entry entry : this.entries)
-		{ bb.put(entry.serialize()); }
-
-		return data;
+		{ entry.serializeTo(bb); }
 	}
 
 	@Override
 	public IPacket deserialize(byte[] data, int offset, int length) 
 	{
+		this.invalidate();
 		ByteBuffer bb = ByteBuffer.wrap(data, offset, length);
 
 		this.command = bb.get();
@@ -96,11 +114,25 @@ public class RIPv2 extends BasePacket
 
 	public String toString()
 	{
-		String x = String.format("RIP : {command=%d, version=%d, entries={",
-                this.command, this.version);
+		StringBuilder x = new StringBuilder(String.format(
+                "RIP : {command=%d, version=%d, entries={",
+                this.command, this.version));
 		for (RIPv2Entry entry : this.entries)
-		{ x = x + entry.toString() + ","; }
-        x = x + "}}";
-		return x;
+		{ x.append(entry.toString()).append(','); }
+        x.append("}}");
+		return x.toString();
+	}
+
+	@Override
+	public Object clone()
+	{
+		RIPv2 pkt = (RIPv2)super.clone();
+		if (this.entries != null)
+		{
+			pkt.entries = new LinkedList<RIPv2Entry>();
+			for (RIPv2Entry entry : this.entries)
+			{ pkt.entries.add(entry.clone()); }
+		}
+		return pkt;
 	}
 }
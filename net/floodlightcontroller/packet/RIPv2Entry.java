@@ -5,7 +5,7 @@ import java.nio.ByteBuffer;
 /**
   * @author Anubhavnidhi Abhashkumar and Aaron Gember-Jacobson
   */
-public class RIPv2Entry 
+public class RIPv2Entry implements Cloneable
 {
     public static final short ADDRESS_FAMILY_IPv4 = 2;
 
@@ -76,15 +76,22 @@ public class RIPv2Entry
     {
 		int length = 2*2 + 4*4;
 		byte[] data = new byte[length];
-		ByteBuffer bb = ByteBuffer.wrap(data);
+		this.serializeTo(ByteBuffer.wrap(data));
+		return data;
+	}
 
+	/**
+	 * Serialize the entry into a buffer, at the buffer's position.
+	 * @param bb buffer with at least 20 bytes remaining
+	 */
+	public void serializeTo(ByteBuffer bb)
+	{
 		bb.putShort(this.addressFamily);
 		bb.putShort(this.routeTag);
         bb.putInt(this.address);
         bb.putInt(this.subnetMask);
         bb.putInt(this.nextHopAddress);
         bb.putInt(this.metric);
-		return data;
 	}
 
 	public RIPv2Entry deserialize(byte[] data, int offset, int length) 
@@ -123,4 +130,13 @@ public class RIPv2Entry
         { return false; }
         return true; 
     }
+
+    @Override
+    public RIPv2Entry clone()
+    {
+        try
+        { return (RIPv2Entry)super.clone(); }
+        catch (CloneNotSupportedException e)
+        { throw new RuntimeException("Could not clone RIPv2Entry", e); }
+    }
 }
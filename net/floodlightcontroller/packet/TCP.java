@@ -47,6 +47,7 @@ public class TCP extends BasePacket {
      */
     public TCP setSourcePort(short sourcePort) {
         this.sourcePort = sourcePort;
+        invalidate();
         return this;
     }
 
@@ -62,6 +63,7 @@ public class TCP extends BasePacket {
      */
     public TCP setDestinationPort(short destinationPort) {
         this.destinationPort = destinationPort;
+        invalidate();
         return this;
     }
 
@@ -77,6 +79,7 @@ public class TCP extends BasePacket {
     }
     public TCP setSequence(int seq) {
         this.sequence = seq;
+        invalidate();
         return this;
     }
     public int getAcknowledge() {
@@ -84,6 +87,7 @@ public class TCP extends BasePacket {
     }
     public TCP setAcknowledge(int ack) {
         this.acknowledge = ack;
+        invalidate();
         return this;
     }
     public byte getDataOffset() {
@@ -91,6 +95,7 @@ public class TCP extends BasePacket {
     }
     public TCP setDataOffset(byte offset) {
         this.dataOffset = offset;
+        invalidate();
         return this;
     }
     public short getFlags() {
@@ -98,6 +103,7 @@ public class TCP extends BasePacket {
     }
     public TCP setFlags(short flags) {
         this.flags = flags;
+        invalidate();
         return this;
     }
     public short getWindowSize() {
@@ -105,6 +111,7 @@ public class TCP extends BasePacket {
     }
     public TCP setWindowSize(short windowSize) {
         this.windowSize = windowSize;
+        invalidate();
         return this;
     }
     public short getTcpChecksum() {
@@ -112,6 +119,7 @@ public class TCP extends BasePacket {
     }
     public TCP setTcpChecksum(short checksum) {
         this.checksum = checksum;
+        invalidate();
         return this;
     }
     
@@ -126,6 +134,7 @@ public class TCP extends BasePacket {
     }
     public TCP setUrgentPointer(short urgentPointer) {
         this.urgentPointer= urgentPointer;
+        invalidate();
         return this;
     }
     public byte[] getOptions() {
@@ -134,6 +143,7 @@ public class TCP extends BasePacket {
     public TCP setOptions(byte[] options) {
         this.options = options;
         this.dataOffset = (byte) ((20 + options.length + 3) >> 2);
+        invalidate();
         return this;
     }
     /**
@@ -141,6 +151,7 @@ public class TCP extends BasePacket {
      */
     public TCP setChecksum(short checksum) {
         this.checksum = checksum;
+        invalidate();
         return this;
     }
 
@@ -151,20 +162,37 @@ public class TCP extends BasePacket {
      *      -length : 0
      */
     public byte[] serialize() {
-        int length;
+        return serializeToArray();
+    }
+
+    @Override
+    protected boolean tracksChanges() {
+        return true;
+    }
+
+    @Override
+    public int getSerializedLength() {
+        int headerLength = ((dataOffset == 0) ? 5 : dataOffset) << 2;
+        return headerLength
+                + ((payload == null) ? 0 : payload.getSerializedLength());
+    }
+
+    @Override
+    public void serializeTo(ByteBuffer bb) {
+        if (putSerialized(bb))
+            return;
+        int start = bb.position();
         if (dataOffset == 0)
             dataOffset = 5;  // default header length
-        length = dataOffset << 2;
-        byte[] payloadData = null;
+        bb.position(start + (dataOffset << 2));
         if (payload != null) {
             payload.setParent(this);
-            payloadData = payload.serialize();
-            length += payloadData.length;
+            payload.serializeTo(bb);
         }
+        int end = bb.position();
+        int length = end - start;
 
-        byte[] data = new byte[length];
-        ByteBuffer bb = ByteBuffer.wrap(data);
-
+        bb.position(start);
         bb.putShort(this.sourcePort);
         bb.putShort(this.destinationPort);
         bb.putInt(this.sequence);
@@ -180,42 +208,27 @@ public class TCP extends BasePacket {
             for (int i = 0; i < padding; i++)
                 bb.put((byte) 0);
         }
-        if (payloadData != null)
-            bb.put(payloadData);
+        bb.position(end);
 
         if (this.parent != null && this.parent instanceof IPv4)
             ((IPv4)this.parent).setProtocol(IPv4.PROTOCOL_TCP);
 
         // compute checksum if needed
         if (this.checksum == 0) {
-            bb.rewind();
-            int accumulation = 0;
+            long sum = 0;
 
             // compute pseudo header mac
             if (this.parent != null && this.parent instanceof IPv4) {
                 IPv4 ipv4 = (IPv4) this.parent;
-                accumulation += ((ipv4.getSourceAddress() >> 16) & 0xffff)
-                        + (ipv4.getSourceAddress() & 0xffff);
-                accumulation += ((ipv4.getDestinationAddress() >> 16) & 0xffff)
-                        + (ipv4.getDestinationAddress() & 0xffff);
-                accumulation += ipv4.getProtocol() & 0xff;
-                accumulation += length & 0xffff;
-            }
-
-            for (int i = 0; i < length / 2; ++i) {
-                accumulation += 0xffff & bb.getShort();
-            }
-            // pad to an even number of shorts
-            if (length % 2 > 0) {
-                accumulation += (bb.get() & 0xff) << 8;
+                sum = Checksum.addPseudoHeader(sum, ipv4.getSourceAddress(),
+                        ipv4.getDestinationAddress(), ipv4.getProtocol(),
+                        length);
             }
 
-            accumulation = ((accumulation >> 16) & 0xffff)
-                    + (accumulation & 0xffff);
-            this.checksum = (short) (~accumulation & 0xffff);
-            bb.putShort(16, this.checksum);
+            sum = Checksum.add(sum, bb, start, length);
+            this.checksum = Checksum.finish(sum);
+            bb.putShort(start + 16, this.checksum);
         }
-        return data;
     }
 
     /* (non-Javadoc)
@@ -258,6 +271,7 @@ public class TCP extends BasePacket {
 
     @Override
     public IPacket deserialize(byte[] data, int offset, int length) {
+        invalidate();
         ByteBuffer bb = ByteBuffer.wrap(data, offset, length);
         this.sourcePort = bb.getShort();
         this.destinationPort = bb.getShort();
@@ -280,6 +294,8 @@ public class TCP extends BasePacket {
             } catch (IndexOutOfBoundsException e) {
                 this.options = null;
             }
+        } else {
+            this.options = null;
         }
         
         this.payload = new Data();
@@ -287,4 +303,11 @@ public class TCP extends BasePacket {
         this.payload.setParent(this);
         return this;
     }
+
+    @Override
+    public Object clone() {
+        TCP pkt = (TCP) super.clone();
+        pkt.options = (options == null) ? null : options.clone();
+        return pkt;
+    }
 }
@@ -18,27 +18,25 @@
 package net.floodlightcontroller.packet;
 
 import java.nio.ByteBuffer;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  *
  * @author David Erickson (daviderickson@cs.stanford.edu)
  */
 public class UDP extends BasePacket {
-    public static Map<Short, Class<? extends IPacket>> decodeMap;
+    /** Payload factories by well-known port */
+    public static final PayloadRegistry decodeRegistry = new PayloadRegistry(16);
     public static short DHCP_SERVER_PORT = (short)67;
     public static short DHCP_CLIENT_PORT = (short)68;
     public static short RIP_PORT = (short)520;
 
     static {
-        decodeMap = new HashMap<Short, Class<? extends IPacket>>();
         /*
          * Disable DHCP until the deserialize code is hardened to deal with garbage input
          */
-        UDP.decodeMap.put(DHCP_SERVER_PORT, DHCP.class);
-        UDP.decodeMap.put(DHCP_CLIENT_PORT, DHCP.class); 
-        UDP.decodeMap.put(RIP_PORT, RIPv2.class);
+        UDP.decodeRegistry.register(DHCP_SERVER_PORT, DHCP::new);
+        UDP.decodeRegistry.register(DHCP_CLIENT_PORT, DHCP::new);
+        UDP.decodeRegistry.register(RIP_PORT, RIPv2::new);
     }
 
     protected short sourcePort;
@@ -58,6 +56,7 @@ public class UDP extends BasePacket {
      */
     public UDP setSourcePort(short sourcePort) {
         this.sourcePort = sourcePort;
+        invalidate();
         return this;
     }
 
@@ -73,6 +72,7 @@ public class UDP extends BasePacket {
      */
     public UDP setDestinationPort(short destinationPort) {
         this.destinationPort = destinationPort;
+        invalidate();
         return this;
     }
 
@@ -95,6 +95,7 @@ public class UDP extends BasePacket {
      */
     public UDP setChecksum(short checksum) {
         this.checksum = checksum;
+        invalidate();
         return this;
     }
 
@@ -111,58 +112,61 @@ public class UDP extends BasePacket {
      *      -length : 0
      */
     public byte[] serialize() {
-        byte[] payloadData = null;
+        return serializeToArray();
+    }
+
+    @Override
+    protected boolean tracksChanges() {
+        return true;
+    }
+
+    @Override
+    public int getSerializedLength() {
+        return 8 + ((payload == null) ? 0 : payload.getSerializedLength());
+    }
+
+    @Override
+    public void serializeTo(ByteBuffer bb) {
+        if (putSerialized(bb))
+            return;
+        int start = bb.position();
+        bb.position(start + 8);
         if (payload != null) {
             payload.setParent(this);
-            payloadData = payload.serialize();
+            payload.serializeTo(bb);
         }
+        int end = bb.position();
+        this.length = (short) (end - start);
 
-        this.length = (short) (8 + ((payloadData == null) ? 0
-                : payloadData.length));
-
-        byte[] data = new byte[this.length];
-        ByteBuffer bb = ByteBuffer.wrap(data);
-
+        bb.position(start);
         bb.putShort(this.sourcePort);
         bb.putShort(this.destinationPort);
         bb.putShort(this.length);
         bb.putShort(this.checksum);
-        if (payloadData != null)
-            bb.put(payloadData);
+        bb.position(end);
 
         if (this.parent != null && this.parent instanceof IPv4)
             ((IPv4)this.parent).setProtocol(IPv4.PROTOCOL_UDP);
 
         // compute checksum if needed
         if (this.checksum == 0) {
-            bb.rewind();
-            int accumulation = 0;
+            long sum = 0;
 
             // compute pseudo header mac
             if (this.parent != null && this.parent instanceof IPv4) {
                 IPv4 ipv4 = (IPv4) this.parent;
-                accumulation += ((ipv4.getSourceAddress() >> 16) & 0xffff)
-                        + (ipv4.getSourceAddress() & 0xffff);
-                accumulation += ((ipv4.getDestinationAddress() >> 16) & 0xffff)
-                        + (ipv4.getDestinationAddress() & 0xffff);
-                accumulation += ipv4.getProtocol() & 0xff;
-                accumulation += this.length & 0xffff;
+                sum = Checksum.addPseudoHeader(sum, ipv4.getSourceAddress(),
+                        ipv4.getDestinationAddress(), ipv4.getProtocol(),
+                        this.length);
             }
 
-            for (int i = 0; i < this.length / 2; ++i) {
-                accumulation += 0xffff & bb.getShort();
-            }
-            // pad to an even number of shorts
-            if (this.length % 2 > 0) {
-                accumulation += (bb.get() & 0xff) << 8;
-            }
-
-            accumulation = ((accumulation >> 16) & 0xffff)
-                    + (accumulation & 0xffff);
-            this.checksum = (short) (~accumulation & 0xffff);
-            bb.putShort(6, this.checksum);
+            sum = Checksum.add(sum, bb, start, end - start);
+            this.checksum = Checksum.finish(sum);
+            // a zero checksum means none was computed (RFC 768)
+            if (this.checksum == 0)
+                this.checksum = (short) 0xffff;
+            bb.putShort(start + 6, this.checksum);
         }
-        return data;
     }
 
     /* (non-Javadoc)
@@ -204,27 +208,18 @@ public class UDP extends BasePacket {
 
     @Override
     public IPacket deserialize(byte[] data, int offset, int length) {
+        invalidate();
         ByteBuffer bb = ByteBuffer.wrap(data, offset, length);
         this.sourcePort = bb.getShort();
         this.destinationPort = bb.getShort();
         this.length = bb.getShort();
         this.checksum = bb.getShort();
 
-        if (UDP.decodeMap.containsKey(this.destinationPort)) {
-            try {
-                this.payload = UDP.decodeMap.get(this.destinationPort).getConstructor().newInstance();
-            } catch (Exception e) {
-                throw new RuntimeException("Failure instantiating class", e);
-            }
-        } else if (UDP.decodeMap.containsKey(this.sourcePort)) {
-            try {
-                this.payload = UDP.decodeMap.get(this.sourcePort).getConstructor().newInstance();
-            } catch (Exception e) {
-                throw new RuntimeException("Failure instantiating class", e);
-            }
-        } else {
+        this.payload = UDP.decodeRegistry.newPacket(this.destinationPort);
+        if (this.payload == null)
+            this.payload = UDP.decodeRegistry.newPacket(this.sourcePort);
+        if (this.payload == null)
             this.payload = new Data();
-        }
         this.payload = payload.deserialize(data, bb.position(), bb.limit()-bb.position());
         this.payload.setParent(this);
         return this;
@@ -9,10 +9,20 @@ import java.util.Arrays;
  */
 public class MACAddress {
     public static final int MAC_ADDRESS_LENGTH = 6;
-    private byte[] address = new byte[MAC_ADDRESS_LENGTH];
+    /** The broadcast address as a {@code long} */
+    public static final long BROADCAST = 0xffffffffffffL;
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    /** The address in the lower 48 bits */
+    private final long address;
 
     public MACAddress(byte[] address) {
-        this.address = Arrays.copyOf(address, MAC_ADDRESS_LENGTH);
+        this.address = toLong((address.length >= MAC_ADDRESS_LENGTH) ? address
+                : Arrays.copyOf(address, MAC_ADDRESS_LENGTH), 0);
+    }
+
+    private MACAddress(long address) {
+        this.address = address & BROADCAST;
     }
 
     /**
@@ -29,13 +39,14 @@ public class MACAddress {
                     " separated pairwise by :'s.");
         }
 
-        byte[] addressInBytes = new byte[MAC_ADDRESS_LENGTH];
+        long addressInLong = 0;
         for (int i = 0; i < MAC_ADDRESS_LENGTH; i++) {
             String element = elements[i];
-            addressInBytes[i] = (byte)Integer.parseInt(element, 16);
+            addressInLong = (addressInLong << 8)
+                    | (Integer.parseInt(element, 16) & 0xff);
         }
 
-        return new MACAddress(addressInBytes);
+        return new MACAddress(addressInLong);
     }
 
     /**
@@ -60,16 +71,55 @@ public class MACAddress {
      * @throws IllegalArgumentException if the long value cannot be parsed as a MAC address.
      */
     public static MACAddress valueOf(long address) {
-        byte[] addressInBytes = new byte[] {
-                (byte)((address >> 40) & 0xff),
-                (byte)((address >> 32) & 0xff),
-                (byte)((address >> 24) & 0xff),
-                (byte)((address >> 16) & 0xff),
-                (byte)((address >> 8 ) & 0xff),
-                (byte)((address >> 0) & 0xff)
-        };
+        return new MACAddress(address);
+    }
 
-        return new MACAddress(addressInBytes);
+    /**
+     * Returns the {@code long} value of the MAC address held in six bytes of
+     * an array.
+     * @param address array holding the MAC address
+     * @param offset index of the first byte of the MAC address
+     * @return the MAC address in the lower 48 bits of a {@code long}
+     */
+    public static long toLong(byte[] address, int offset) {
+        long mac = 0;
+        for (int i = 0; i < MAC_ADDRESS_LENGTH; i++) {
+            mac = (mac << 8) | (address[offset + i] & 0xffL);
+        }
+        return mac;
+    }
+
+    /**
+     * Returns the bytes of a MAC address held in a {@code long}.
+     * @param address the MAC address in the lower 48 bits
+     * @return a new array holding the six bytes of the MAC address
+     */
+    public static byte[] toBytes(long address) {
+        byte[] addressInBytes = new byte[MAC_ADDRESS_LENGTH];
+        for (int i = MAC_ADDRESS_LENGTH - 1; i >= 0; i--) {
+            addressInBytes[i] = (byte) address;
+            address >>>= 8;
+        }
+        return addressInBytes;
+    }
+
+    /**
+     * Returns the string form of a MAC address held in a {@code long}, as
+     * six pairs of hex digits separated by :'s.
+     * @param address the MAC address in the lower 48 bits
+     * @return the string form of the MAC address
+     */
+    public static String toString(long address) {
+        char[] chars = new char[3 * MAC_ADDRESS_LENGTH - 1];
+        for (int i = 0; i < MAC_ADDRESS_LENGTH; i++) {
+            int b = (int) (address >>> ((MAC_ADDRESS_LENGTH - 1 - i) * 8));
+            if (i > 0) {
+                chars[3 * i - 1] = ':';
+            }
+            chars[3 * i] = HEX_DIGITS[(b >> 4) & 0xf];
+            chars[3 * i + 1] = HEX_DIGITS[b & 0xf];
+        }
+        return new String(chars);
     }
 
     /**
@@ -77,7 +127,7 @@ public class MACAddress {
      * @return the length of the {@code MACAddress}.
      */
     public int length() {
-        return address.length;
+        return MAC_ADDRESS_LENGTH;
     }
 
     /**
@@ -85,7 +135,7 @@ public class MACAddress {
      * @return the numeric value represented by this object after conversion to type {@code byte} array.
      */
     public byte[] toBytes() {
-        return Arrays.copyOf(address, address.length);
+        return toBytes(address);
     }
 
     /**
@@ -93,12 +143,7 @@ public class MACAddress {
      * @return the numeric value represented by this object after conversion to type {@code long}.
      */
     public long toLong() {
-        long mac = 0;
-        for (int i = 0; i < 6; i++) {
-            long t = (address[i] & 0xffL) << ((5 - i) * 8);
-            mac |= t;
-        }
-        return mac;
+        return address;
     }
 
     /**
@@ -106,11 +151,7 @@ public class MACAddress {
      * @return {@code true} if the MAC address is the broadcast address.
      */
     public boolean isBroadcast() {
-        for (byte b : address) {
-            if (b != -1) // checks if equal to 0xff
-                return false;
-        }
-        return true;
+        return address == BROADCAST;
     }
 
     /**
@@ -121,7 +162,7 @@ public class MACAddress {
         if (isBroadcast()) {
             return false;
         }
-        return (address[0] & 0x01) != 0;
+        return (address & 0x010000000000L) != 0;
     }
 
     @Override
@@ -135,23 +176,16 @@ public class MACAddress {
         }
 
         MACAddress other = (MACAddress)o;
-        return Arrays.equals(this.address, other.address);
+        return this.address == other.address;
     }
 
     @Override
     public int hashCode() {
-        return Arrays.hashCode(this.address);
+        return Long.hashCode(this.address);
     }
 
     @Override
     public String toString() {
-        StringBuilder builder = new StringBuilder();
-        for (byte b: address) {
-            if (builder.length() > 0) {
-                builder.append(":");
-            }
-            builder.append(String.format("%02X", b & 0xFF));
-        }
-        return builder.toString();
+        return toString(address);
     }
 }
@@ -0,0 +1,116 @@
+package net.floodlightcontroller.util;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Bounded free list of reusable objects. {@link #acquire()} hands out a free
+ * object, or creates one if none is free; {@link #release(Object)} takes an
+ * object back for reuse, or drops it if the pool is full. The pool does not
+ * reset released objects; whoever acquires one must overwrite its state.
+ * <p>
+ * With leak detection on, the pool remembers where each object it hands out
+ * was acquired, until the object is released. {@link #reportLeaks()} reports
+ * the objects still out, and releasing an object the pool did not hand out,
+ * or released twice, is reported as well. Detection takes a stack trace on
+ * every acquire, so it is meant for debugging.
+ * <p>
+ * A pool takes no locks; it must only be used by one thread at a time.
+ */
+public class ObjectPool<T> {
+    private final Supplier<T> factory;
+    private final int capacity;
+    private final ArrayDeque<T> free;
+
+    /** Where each object handed out and not yet released was acquired; null
+     *  if leak detection is off */
+    private final Map<T, Throwable> acquired;
+
+    private long acquireCount;
+    private long createCount;
+
+    /**
+     * @param factory creates objects when none are free
+     * @param capacity most objects kept for reuse
+     * @param detectLeaks true to track objects until they are released
+     */
+    public ObjectPool(Supplier<T> factory, int capacity, boolean detectLeaks) {
+        this.factory = factory;
+        this.capacity = capacity;
+        this.free = new ArrayDeque<T>(capacity);
+        this.acquired = detectLeaks ? new IdentityHashMap<T, Throwable>() : null;
+    }
+
+    /**
+     * @return a free object, or a new one if none is free
+     */
+    public T acquire() {
+        acquireCount++;
+        T obj = free.pollLast();
+        if (null == obj) {
+            createCount++;
+            obj = factory.get();
+        }
+        if (acquired != null)
+            acquired.put(obj, new Throwable("Acquired here"));
+        return obj;
+    }
+
+    /**
+     * Return an object to the pool. The caller must not use the object once
+     * it is released.
+     * @param obj an object acquired from the pool
+     */
+    public void release(T obj) {
+        if (acquired != null && null == acquired.remove(obj)) {
+            new Throwable("Released an object not acquired from the pool, "
+                    + "or released twice: " + obj.getClass().getName())
+                    .printStackTrace();
+            return;
+        }
+        if (free.size() < capacity)
+            free.addLast(obj);
+    }
+
+    /**
+     * Report the objects acquired and not yet released, with where they
+     * were acquired, and stop tracking them. Does nothing unless leak
+     * detection is on.
+     * @return the number of objects reported
+     */
+    public int reportLeaks() {
+        if (null == acquired || acquired.isEmpty())
+            return 0;
+        int leaks = acquired.size();
+        for (Map.Entry<T, Throwable> entry : acquired.entrySet()) {
+            System.err.println("Pooled object was not released: "
+                    + entry.getKey().getClass().getName());
+            entry.getValue().printStackTrace();
+        }
+        acquired.clear();
+        return leaks;
+    }
+
+    /**
+     * @return true if leak detection is on
+     */
+    public boolean isDetectingLeaks() {
+        return acquired != null;
+    }
+
+    /**
+     * @return number of objects handed out
+     */
+    public long getAcquireCount() {
+        return acquireCount;
+    }
+
+    /**
+     * @return number of objects created because none were free
+     */
+    public long getCreateCount() {
+        return createCount;
+    }
+}